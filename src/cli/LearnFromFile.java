@@ -1,5 +1,6 @@
 package cli;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 
 import org.apache.commons.cli.CommandLine;
@@ -25,6 +26,12 @@ import utils.Utils;
 
 public class LearnFromFile {
 
+	/**
+	 * Minimum time between two checkpoints of the local scores, in
+	 * milliseconds.
+	 */
+	private static final long CHECKPOINT_INTERVAL = 60000;
+
 	@SuppressWarnings({ "static-access" })
 	public static void main(String[] args) {
 
@@ -118,6 +125,18 @@ public class LearnFromFile {
 				.argName("int")
 				.build();
 
+		Option checkpoint = Option.builder("ckp")
+				.longOpt("checkpoint")
+				.desc("Saves the evaluated local scores to <file> every minute, so that an interrupted run may be resumed with -rs.")
+				.hasArg()
+				.argName("file")
+				.build();
+
+		Option resume = Option.builder("rs")
+				.longOpt("resume")
+				.desc("Resumes evaluating the local scores from the checkpoint file given by -ckp, if it was saved for the same data and settings.")
+				.build();
+
 		options.addOption(inputFile);
 		options.addOption(numParents);
 		options.addOption(outputFile);
@@ -132,6 +151,8 @@ public class LearnFromFile {
 		options.addOption(bcDBN);
 		options.addOption(cDBN);
 		options.addOption(intra_in);
+		options.addOption(checkpoint);
+		options.addOption(resume);
 
 		CommandLineParser parser = new DefaultParser();
 		try {
@@ -155,9 +176,16 @@ public class LearnFromFile {
 			int markovLag = Integer.parseInt(cmd.getOptionValue("m", "1"));
 			int root = Integer.parseInt(cmd.getOptionValue("r", "-1"));
 
+			if (cmd.hasOption("rs") && !cmd.hasOption("ckp")) {
+				System.err.println("Resuming needs the checkpoint file given by -ckp.");
+				System.exit(1);
+			}
+
 			Observations o = new Observations(cmd.getOptionValue("i"), markovLag);
 
 			Scores s = new Scores(o, Integer.parseInt(cmd.getOptionValue("p")), stationary, verbose);
+			if (cmd.hasOption("ckp"))
+				s.setCheckpoint(new File(cmd.getOptionValue("ckp")), CHECKPOINT_INTERVAL, cmd.hasOption("rs"));
 
 
 
@@ -2,6 +2,9 @@ package cli;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -15,6 +18,7 @@ import dbn.DynamicBayesNet;
 import dbn.LLScoringFunction;
 import dbn.MDLScoringFunction;
 import dbn.Observations;
+import dbn.ParentSets;
 import dbn.RandomScoringFunction;
 import dbn.Scores;
 import dbn.ScoringFunction;
@@ -23,6 +27,12 @@ import utils.Utils;
 
 public class learnDBN {
 
+	/**
+	 * Minimum time between two checkpoints of the local scores, in
+	 * milliseconds.
+	 */
+	private static final long CHECKPOINT_INTERVAL = 60000;
+
 	public static void main(String[] args) {
 		// create Options object
 		Options options = new Options();
@@ -77,7 +87,44 @@ public class learnDBN {
 		Option impute = Option.builder("imp").longOpt("impute").desc(
 				"If the file has missing values impute these values. The resulting data with imputed values is saved in the same folder with <filename>_imputed.csv")
 				.build();
-		Option mt = Option.builder("mt").longOpt("MultiThread").desc("Learns the DBN using parallel computations.")
+		Option mt = Option.builder("mt").longOpt("MultiThread").desc(
+				"Learns the DBN using parallel computations, with <threads> threads, at least 1. If <threads> is not given, uses as many threads as there are processors. Without -mt, learns with a single thread.")
+				.hasArg().optionalArg(true).argName("threads").build();
+		Option adTree = Option.builder("adt").longOpt("adTree").desc(
+				"Caches the counts of the observations in an AD-tree, which speeds up scoring at the cost of memory. The tree stores at most <mb> megabytes of observation indices, by default a quarter of the maximum heap.")
+				.hasArg().optionalArg(true).argName("mb").build();
+		Option bitmap = Option.builder("bm").longOpt("bitmapIndex").desc(
+				"Indexes the observations with one bitset per attribute value, which speeds up scoring when attributes have few values.")
+				.build();
+		Option memoryMap = Option.builder("mm").longOpt("memoryMap").desc(
+				"Keeps the observations off-heap, memory-mapped to <file>, for learning from data larger than the heap.")
+				.hasArg().argName("file").build();
+		Option maxParentSets = Option.builder("mps").longOpt("maxParentSets").desc(
+				"Refuses to learn if the number of candidate parent sets per family exceeds <int>.").hasArg()
+				.argName("int").build();
+		Option familyCache = Option.builder("fc").longOpt("familyCache").desc(
+				"Caches the counts of recently scored families, so that families scored again are not recounted, and families without a present parent are summed from those with one.")
+				.build();
+		Option scoreCache = Option.builder("sc").longOpt("scoreCache").desc(
+				"Loads the local scores from <file> if they were evaluated for the same data and settings, or otherwise saves them to <file>, so that learning again with other structure options does not evaluate them again. Only for data without missing values, and not with -ckp, -rs or -shd.")
+				.hasArg().argName("file").build();
+		Option checkpoint = Option.builder("ckp").longOpt("checkpoint").desc(
+				"Saves the evaluated local scores to <file> every minute, so that an interrupted run may be resumed with -rs. Only for data without missing values.")
+				.hasArg().argName("file").build();
+		Option resume = Option.builder("rs").longOpt("resume").desc(
+				"Resumes evaluating the local scores from the checkpoint file given by -ckp, if it was saved for the same data and settings.")
+				.build();
+		Option shards = Option.builder("shd").longOpt("shards").desc(
+				"Evaluates the local scores in <int> shards of children, each one by a worker process launched locally, and merges them. The threads given by -mt are divided among the workers.")
+				.hasArg().argName("int").build();
+		Option shardIndex = Option.builder("shi").longOpt("shardIndex").desc(
+				"Runs as the worker of shard <int> of -shd: evaluates its local scores, saves them to its shard file and exits.")
+				.hasArg().argName("int").build();
+		Option shardPrefix = Option.builder("shf").longOpt("shardFiles").desc(
+				"Prefix of the shard files, saved as <prefix>.shard<int>, which may be on a file system shared by the workers. Default is the input file.")
+				.hasArg().argName("prefix").build();
+		Option mergeShards = Option.builder("shm").longOpt("mergeShards").desc(
+				"Merges the shard files saved by workers launched separately with -shi, instead of launching them.")
 				.build();
 
 		options.addOption(inputFile);
@@ -96,6 +143,18 @@ public class learnDBN {
 		options.addOption(intra_in);
 		options.addOption(impute);
 		options.addOption(mt);
+		options.addOption(adTree);
+		options.addOption(bitmap);
+		options.addOption(familyCache);
+		options.addOption(memoryMap);
+		options.addOption(maxParentSets);
+		options.addOption(scoreCache);
+		options.addOption(checkpoint);
+		options.addOption(resume);
+		options.addOption(shards);
+		options.addOption(shardIndex);
+		options.addOption(shardPrefix);
+		options.addOption(mergeShards);
 
 		CommandLineParser parser = new DefaultParser();
 
@@ -110,14 +169,70 @@ public class learnDBN {
 			boolean is_cDBN = cmd.hasOption("cDBN");
 			int intra_ind = Integer.parseInt(cmd.getOptionValue("ind", "2"));
 			boolean imputation = cmd.hasOption("imp");
-			boolean multithread = cmd.hasOption("mt");
+			int parallelism = cmd.hasOption("mt") ? Integer.parseInt(cmd.getOptionValue("mt",
+					String.valueOf(Runtime.getRuntime().availableProcessors()))) : 1;
+			if (parallelism < 1)
+				throw new ParseException("The number of threads must be at least 1");
 
 			// TODO: check sanity
 			int markovLag = Integer.parseInt(cmd.getOptionValue("m", "1"));
 			int root = Integer.parseInt(cmd.getOptionValue("r", "-1"));
 
-			Observations o = new Observations(cmd.getOptionValue("i"), markovLag);
-			Scores s = new Scores(o, Integer.parseInt(cmd.getOptionValue("p")), stationary, verbose, multithread);
+			if (cmd.hasOption("rs") && !cmd.hasOption("ckp")) {
+				System.err.println("Resuming needs the checkpoint file given by -ckp.");
+				System.exit(1);
+			}
+
+			// the score cache is a file of its own, which neither checkpoints
+			// nor shards would read
+			if (cmd.hasOption("sc") && (cmd.hasOption("ckp") || cmd.hasOption("rs") || cmd.hasOption("shd"))) {
+				System.err.println("The score cache cannot be combined with -ckp, -rs or -shd.");
+				System.exit(1);
+			}
+
+			Observations o;
+			Observations oLearn;
+			if (cmd.hasOption("mm")) {
+				// observations stay off-heap and are learnt from as they are
+				o = new Observations(cmd.getOptionValue("i"), null, markovLag, new File(cmd.getOptionValue("mm")));
+				oLearn = o;
+			} else {
+				o = new Observations(cmd.getOptionValue("i"), markovLag);
+				// with missing values, only random scores are evaluated from
+				// the input, the data filled in by EM being compacted instead
+				if (o.numMissings(-1) > 0)
+					oLearn = o;
+				else {
+					// learning only needs counts, identical observations are
+					// merged
+					o = o.compact();
+					// indices take precedence over the pool, which would not
+					// be read
+					if (stationary && !cmd.hasOption("adt") && !cmd.hasOption("bm"))
+						o.poolTransitions();
+					oLearn = o;
+				}
+			}
+			if (cmd.hasOption("adt")) {
+				if (cmd.getOptionValue("adt") == null)
+					oLearn.buildADTree();
+				else
+					oLearn.buildADTree(Long.parseLong(cmd.getOptionValue("adt")) << 20);
+			}
+			else if (cmd.hasOption("bm"))
+				oLearn.buildBitmapIndex();
+			if (cmd.hasOption("fc"))
+				oLearn.cacheFamilyCounts();
+			// refuse before any score is computed
+			long numParentSets = ParentSets.estimateSize(oLearn.numAttributes() * markovLag,
+					Integer.parseInt(cmd.getOptionValue("p")));
+			if (numParentSets == Long.MAX_VALUE || cmd.hasOption("mps")
+					&& numParentSets > Long.parseLong(cmd.getOptionValue("mps"))) {
+				System.err.println("Too many parent sets per family ("
+						+ (numParentSets == Long.MAX_VALUE ? "overflow" : numParentSets) + "), lower -p or -m.");
+				System.exit(1);
+			}
+			Scores s = new Scores(oLearn, Integer.parseInt(cmd.getOptionValue("p")), stationary, verbose, parallelism);
 			double score;
 			double scorePrev;
 			Scores sNew;
@@ -137,6 +252,21 @@ public class learnDBN {
 					System.out.println("Evaluating network with MDL score.");
 			}
 
+			if (cmd.hasOption("shd") && o.numMissings(-1) > 0) {
+				System.err.println("Sharded evaluation needs data without missing values.");
+				System.exit(1);
+			}
+
+			if (cmd.hasOption("ckp") && o.numMissings(-1) > 0) {
+				System.err.println("Checkpoints need data without missing values.");
+				System.exit(1);
+			}
+
+			if (cmd.hasOption("sc") && o.numMissings(-1) > 0) {
+				System.err.println("The score cache needs data without missing values.");
+				System.exit(1);
+			}
+
 			if (o.numMissings(-1) > 0) {
 
 				System.out.println("Found missing values in data.");
@@ -155,10 +285,12 @@ public class learnDBN {
 				int i = 0;
 				do {
 					dbn = dbn.parameterEM(o, true);
-					oNew = o.fillMissingValues(dbn, true);
+					oNew = o.fillMissingValues(dbn, true).compact();
+					if (stationary)
+						oNew.poolTransitions();
 					scorePrev = dbn.getScore(oNew, sf, true);
 					sNew = new Scores(oNew, Integer.parseInt(cmd.getOptionValue("p")), stationary, verbose,
-							multithread);
+							parallelism);
 					sNew.evaluate(sf);
 
 					if (is_bcDBN) {
@@ -185,7 +317,42 @@ public class learnDBN {
 					oNew.writeToFile(path2);
 				}
 			} else {
-				s.evaluate(sf);
+				if (cmd.hasOption("shd")) {
+					int numShards = Integer.parseInt(cmd.getOptionValue("shd"));
+					String prefix = cmd.getOptionValue("shf", cmd.getOptionValue("i"));
+					if (cmd.hasOption("shi")) {
+						// a worker resumes its shard if it was interrupted
+						int shard = Integer.parseInt(cmd.getOptionValue("shi"));
+						s.setShard(shard, numShards);
+						s.setCheckpoint(new File(prefix + ".shard" + shard), CHECKPOINT_INTERVAL, true);
+						try {
+							s.evaluate(sf);
+						} catch (IllegalStateException e) {
+							// the coordinator learns from the exit status
+							System.err.println(e.getMessage() + ".");
+							System.exit(1);
+						}
+						return;
+					}
+					if (!cmd.hasOption("shm"))
+						runWorkers(args, prefix, numShards, parallelism);
+					File[] shardFiles = new File[numShards];
+					for (int shard = 0; shard < numShards; shard++)
+						shardFiles[shard] = new File(prefix + ".shard" + shard);
+					try {
+						s.merge(sf, shardFiles);
+					} catch (IllegalArgumentException | IllegalStateException e) {
+						System.err.println(e.getMessage() + ".");
+						System.exit(1);
+					}
+				} else {
+					if (cmd.hasOption("ckp"))
+						s.setCheckpoint(new File(cmd.getOptionValue("ckp")), CHECKPOINT_INTERVAL, cmd.hasOption("rs"));
+					if (cmd.hasOption("sc"))
+						s.evaluate(sf, new File(cmd.getOptionValue("sc")));
+					else
+						s.evaluate(sf);
+				}
 
 				if (is_bcDBN) {
 					dbn = s.to_bcDBN(sf, intra_ind);
@@ -195,8 +362,11 @@ public class learnDBN {
 				} else {
 					dbn = s.toDBN(root, spanning);
 				}
-				dbn.learnParameters(o, stationary);
+				dbn.learnParameters(oLearn, stationary);
 			}
+			if (verbose && cmd.hasOption("fc"))
+				System.out.println("Family count cache: " + oLearn.getFamilyCacheHits() + " hits, "
+						+ oLearn.getFamilyCacheMisses() + " misses.");
 			String output;
 			if (cmd.hasOption("d")) {
 				if (cmd.hasOption("c") && markovLag == 1) {
@@ -240,4 +410,51 @@ public class learnDBN {
 		}
 
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Launches one worker process per shard, with the same arguments and
+	 * class path, and waits for all of them. The threads are divided among
+	 * the workers, each one running at least one. The output of each worker
+	 * is written next to its shard file.
+	 */
+	private static void runWorkers(String[] args, String prefix, int numShards, int parallelism) {
+		// the number of threads of the workers replaces the one given
+		List<String> workerArgs = new ArrayList<String>(args.length + 2);
+		for (int a = 0; a < args.length; a++) {
+			if (args[a].equals("-mt") || args[a].equals("--MultiThread")) {
+				if (a + 1 < args.length && !args[a + 1].startsWith("-"))
+					a++;
+			} else if (!args[a].startsWith("-mt") && !args[a].startsWith("--MultiThread="))
+				workerArgs.add(args[a]);
+		}
+		workerArgs.add("-mt");
+		workerArgs.add(String.valueOf(Math.max(1, parallelism / numShards)));
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process[] workers = new Process[numShards];
+		try {
+			for (int shard = 0; shard < numShards; shard++) {
+				List<String> command = new ArrayList<String>();
+				command.add(java);
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(learnDBN.class.getName());
+				command.addAll(workerArgs);
+				command.add("-shi");
+				command.add(String.valueOf(shard));
+				File log = new File(prefix + ".shard" + shard + ".log");
+				workers[shard] = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+			}
+			for (int shard = 0; shard < numShards; shard++)
+				if (workers[shard].waitFor() != 0) {
+					System.err.println("Worker of shard " + shard + " failed, see " + prefix + ".shard" + shard
+							+ ".log.");
+					System.exit(1);
+				}
+		} catch (IOException | InterruptedException e) {
+			System.err.println("Workers could not be run.");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package dbn;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All-dimensions tree (AD-tree) that caches the sufficient statistics of the
+ * observations of one transition, so that conjunctive queries over the
+ * observed attributes are answered by walking the tree instead of scanning
+ * all observations.
+ * <p>
+ * Each node stores the (weighted) number of observations that match a
+ * conjunction of attribute values, and is refined by one child per value of
+ * each attribute with a larger column index. Missing values (-1) get their
+ * own child, so that the semantics of
+ * {@link LocalConfiguration#matches(int[])} are preserved. Since the full
+ * tree is far too large for a realistic number of attributes, nodes are
+ * expanded lazily, on the first query that needs them, and only while the
+ * memory budget allows. Nodes with few observations are never expanded and
+ * are answered by scanning their (short) list of observations.
+ * <p>
+ * Expansion is thread-safe, allowing concurrent evaluation of scores.
+ *
+ * @see Observations#buildADTree(int, long)
+ */
+class ADTree {
+
+	private static class Node {
+
+		/**
+		 * Weighted number of observations matching this node.
+		 */
+		private final double count;
+
+		/**
+		 * Indices of the observations matching this node.
+		 */
+		private final int[] rows;
+
+		/**
+		 * First column that refines this node.
+		 */
+		private final int firstColumn;
+
+		/**
+		 * children[a - firstColumn][v] matches this node and column a with
+		 * value v, where v equal to the attribute range stands for a missing
+		 * value. Children with no observations are null. Lazily allocated.
+		 */
+		private Node[][] children;
+
+		private Node(double count, int[] rows, int firstColumn) {
+			this.count = count;
+			this.rows = rows;
+			this.firstColumn = firstColumn;
+		}
+	}
+
+	private final ColumnStore observations;
+
+	private final double[] weights;
+
+	/**
+	 * Number of values of the attribute in each column.
+	 */
+	private final int[] ranges;
+
+	/**
+	 * Nodes matching up to this number of observations are not expanded.
+	 */
+	private final int leafSize;
+
+	/**
+	 * Number of observation indices that can still be stored in new nodes.
+	 */
+	private final AtomicLong budget;
+
+	private final Node root;
+
+	/**
+	 * @param attributes
+	 *            attributes of the observations
+	 * @param observations
+	 *            coded observations of one transition
+	 * @param weights
+	 *            weight of each observation
+	 * @param numObservations
+	 *            number of observations to consider
+	 * @param leafSize
+	 *            nodes with this number of observations or less are scanned
+	 *            instead of expanded
+	 * @param budget
+	 *            maximum number of observation indices stored by the tree,
+	 *            shared between trees of the same observations
+	 */
+	ADTree(List<Attribute> attributes, ColumnStore observations, double[] weights, int numObservations, int leafSize,
+			AtomicLong budget) {
+		this.observations = observations;
+		this.weights = weights;
+		this.leafSize = leafSize;
+		this.budget = budget;
+
+		int n = attributes.size();
+		int numColumns = observations.numColumns();
+		this.ranges = new int[numColumns];
+		for (int a = 0; a < numColumns; a++)
+			ranges[a] = attributes.get(a % n).size();
+
+		int[] rows = new int[numObservations];
+		double count = 0;
+		for (int r = 0; r < numObservations; r++) {
+			rows[r] = r;
+			count += weights[r];
+		}
+		budget.addAndGet(-numObservations);
+		this.root = new Node(count, rows, 0);
+	}
+
+	/**
+	 * Returns the children of a node on some column, expanding the node if
+	 * needed. Returns null if the node must be scanned instead, either because
+	 * it is small or because the memory budget is exhausted.
+	 */
+	private Node[] children(Node node, int column) {
+		if (node.rows.length <= leafSize)
+			return null;
+
+		int a = column - node.firstColumn;
+		synchronized (node) {
+			if (node.children == null)
+				node.children = new Node[ranges.length - node.firstColumn][];
+			else if (node.children[a] != null)
+				return node.children[a];
+
+			if (budget.addAndGet(-node.rows.length) < 0) {
+				budget.addAndGet(node.rows.length);
+				return null;
+			}
+
+			int range = ranges[column];
+			int[] sizes = new int[range + 1];
+			for (int r : node.rows)
+				sizes[value(r, column, range)]++;
+
+			int[][] rows = new int[range + 1][];
+			for (int v = 0; v <= range; v++)
+				rows[v] = new int[sizes[v]];
+			Arrays.fill(sizes, 0);
+			double[] counts = new double[range + 1];
+			for (int r : node.rows) {
+				int v = value(r, column, range);
+				rows[v][sizes[v]++] = r;
+				counts[v] += weights[r];
+			}
+
+			Node[] children = new Node[range + 1];
+			for (int v = 0; v <= range; v++)
+				if (sizes[v] > 0)
+					children[v] = new Node(counts[v], rows[v], column + 1);
+
+			node.children[a] = children;
+			return children;
+		}
+	}
+
+	private int value(int row, int column, int range) {
+		int v = observations.get(row, column);
+		return v < 0 ? range : v;
+	}
+
+	/**
+	 * Adds to a table the counts of its family.
+	 *
+	 * @param columns
+	 *            columns of the family (parents and child), sorted
+	 */
+	void count(ContingencyTable table, int[] columns) {
+		count(root, table, columns, 0, new int[ranges.length]);
+	}
+
+	private void count(Node node, ContingencyTable table, int[] columns, int depth, int[] configuration) {
+
+		if (depth == columns.length) {
+			table.add(configuration, node.count);
+			return;
+		}
+
+		int column = columns[depth];
+		Node[] children = children(node, column);
+
+		if (children == null) {
+			// leaf node, remaining columns are read from the observations
+			for (int r : node.rows)
+				table.add(observations, r, weights[r]);
+			return;
+		}
+
+		int range = ranges[column];
+		for (int v = 0; v <= range; v++) {
+			if (children[v] != null) {
+				configuration[column] = v < range ? v : -1;
+				count(children[v], table, columns, depth + 1, configuration);
+			}
+		}
+	}
+
+	/**
+	 * Counts the observations that are compatible with a configuration.
+	 *
+	 * @see Observations#count(LocalConfiguration, int)
+	 */
+	double count(LocalConfiguration c) {
+		int[] configuration = c.toArray();
+		int childColumn = c.getChildIndex();
+
+		Node node = root;
+		for (int column = 0; column < configuration.length; column++) {
+			int value = configuration[column];
+			if (value < 0 || (column == childColumn && !c.getConsiderChild()))
+				continue;
+
+			Node[] children = children(node, column);
+			if (children == null) {
+				double matches = 0;
+				for (int r : node.rows)
+					if (observations.matches(c, r))
+						matches += weights[r];
+				return matches;
+			}
+
+			node = children[value];
+			if (node == null)
+				return 0;
+		}
+		return node.count;
+	}
+
+}
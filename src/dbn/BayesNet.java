@@ -242,6 +242,9 @@ public class BayesNet {
 
 			int parentsRange = c.getParentsRange();
 
+			// all counts of the family in a single pass
+			ContingencyTable table = o.countFamily(c, transition);
+
 			// node i has no parents
 			if (parentsRange == 0) {
 				parameters.add(new HashMap<Configuration, List<Double>>(2));
@@ -249,10 +252,9 @@ public class BayesNet {
 				int range = c.getChildRange();
 				List<Double> probabilities = new ArrayList<Double>(range - 1);
 				// count for all except one of possible child values
-				for (int j = range - 1; j-- > 0;) {
-					double Nijk = o.count(c, transition);
+				for (int k = 0; k < range - 1; k++) {
+					double Nijk = table.getNijk(0, k);
 					probabilities.add(1.0 * Nijk / o.numObservations(transition));
-					c.nextChild();
 				}
 				// important, configuration is indexed by parents only
 				// child must be reset
@@ -262,31 +264,32 @@ public class BayesNet {
 			} else {
 				parameters.add(new HashMap<Configuration, List<Double>>((int) Math.ceil(parentsRange / 0.75)));
 
+				// index of the current parents' configuration in the table
+				int j = 0;
+
 				do {
-					c.setConsiderChild(false);
-					double Nij = o.count(c, transition);
-					c.setConsiderChild(true);
+					double Nij = table.getNij(j);
 
 					int range = c.getChildRange();
 					List<Double> probabilities = new ArrayList<Double>(range - 1);
 
 					// no data found for given configuration
 					if (Nij == 0) {
-						for (int j = range - 1; j-- > 0;)
+						for (int k = range - 1; k-- > 0;)
 							// assume uniform distribution
 							probabilities.add(1.0 / range);
 					} else {
 						// count for all except one of possible child values
-						for (int j = range - 1; j-- > 0;) {
-							double Nijk = o.count(c, transition);
+						for (int k = 0; k < range - 1; k++) {
+							double Nijk = table.getNijk(j, k);
 							probabilities.add(1.0 * Nijk / Nij);
-							c.nextChild();
 						}
 					}
 					// important, configuration is index by parents only
 					// child must be reset
 					c.resetChild();
 					parameters.get(i).put(new Configuration(c), probabilities);
+					j++;
 				} while (c.nextParents());
 			}
 
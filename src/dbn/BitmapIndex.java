@@ -0,0 +1,160 @@
+package dbn;
+
+import java.util.List;
+
+/**
+ * Bitmap index of the observations of one transition, holding one bitset per
+ * column and value, over the observations. An observation matches a
+ * configuration if its bit is set in the bitsets of all the configuration
+ * values, so counts are obtained by intersecting bitsets and counting the
+ * resulting bits, 64 observations at a time. Missing values (-1) are not set
+ * in any bitset, as they never match a configuration.
+ * <p>
+ * When all observations have unit weight, counting reduces to a population
+ * count; otherwise, the weights of the matching observations are added in
+ * order, yielding the same sums as scanning the observations.
+ *
+ * @see Observations#buildBitmapIndex()
+ */
+class BitmapIndex {
+
+	/**
+	 * bitsets[a][v] has the bit of each observation whose column a has value
+	 * v.
+	 */
+	private final long[][][] bitsets;
+
+	/**
+	 * All bits of existing observations set.
+	 */
+	private final long[] all;
+
+	private final double[] weights;
+
+	/**
+	 * True if all weights are 1, in which case bits are counted directly.
+	 */
+	private final boolean unitWeights;
+
+	private final int numWords;
+
+	BitmapIndex(List<Attribute> attributes, ColumnStore observations, double[] weights, int numObservations) {
+		int n = attributes.size();
+		int numColumns = observations.numColumns();
+
+		this.weights = weights;
+		this.numWords = (numObservations + 63) >>> 6;
+
+		boolean unitWeights = true;
+		for (int r = 0; r < numObservations; r++)
+			if (weights[r] != 1) {
+				unitWeights = false;
+				break;
+			}
+		this.unitWeights = unitWeights;
+
+		this.all = new long[numWords];
+		for (int r = 0; r < numObservations; r++)
+			all[r >>> 6] |= 1L << r;
+
+		this.bitsets = new long[numColumns][][];
+		for (int a = 0; a < numColumns; a++) {
+			bitsets[a] = new long[attributes.get(a % n).size()][numWords];
+			for (int r = 0; r < numObservations; r++) {
+				int v = observations.get(r, a);
+				if (v >= 0)
+					bitsets[a][v][r >>> 6] |= 1L << r;
+			}
+		}
+	}
+
+	/**
+	 * Stores in result the intersection of rows with the bitset of column a
+	 * and value v.
+	 *
+	 * @return false if the intersection is empty
+	 */
+	private boolean and(long[] rows, int a, int v, long[] result) {
+		long[] bitset = bitsets[a][v];
+		long any = 0;
+		for (int w = 0; w < numWords; w++) {
+			result[w] = rows[w] & bitset[w];
+			any |= result[w];
+		}
+		return any != 0;
+	}
+
+	private double sum(long[] rows) {
+		if (unitWeights) {
+			long bits = 0;
+			for (int w = 0; w < numWords; w++)
+				bits += Long.bitCount(rows[w]);
+			return bits;
+		}
+		double sum = 0;
+		for (int w = 0; w < numWords; w++) {
+			long word = rows[w];
+			while (word != 0) {
+				sum += weights[(w << 6) + Long.numberOfTrailingZeros(word)];
+				word &= word - 1;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Counts the observations that are compatible with a configuration.
+	 *
+	 * @see Observations#count(LocalConfiguration, int)
+	 */
+	double count(LocalConfiguration c) {
+		int[] configuration = c.toArray();
+		int childColumn = c.getChildIndex();
+
+		long[] rows = all;
+		long[] result = new long[numWords];
+		for (int a = 0; a < configuration.length; a++) {
+			int v = configuration[a];
+			if (v < 0 || (a == childColumn && !c.getConsiderChild()))
+				continue;
+			if (!and(rows, a, v, result))
+				return 0;
+			rows = result;
+		}
+		return sum(rows);
+	}
+
+	/**
+	 * Adds to a table the counts of its family.
+	 */
+	void count(ContingencyTable table) {
+		int[] parentColumns = table.getParentColumns();
+		long[][] rows = new long[parentColumns.length + 2][numWords];
+		System.arraycopy(all, 0, rows[parentColumns.length], 0, numWords);
+		count(table, parentColumns, parentColumns.length, 0, rows);
+	}
+
+	/**
+	 * Intersects rows[p] with every value of the remaining parents p-1, ..., 0,
+	 * where the first parent is the least significant digit of the
+	 * configuration index j.
+	 */
+	private void count(ContingencyTable table, int[] parentColumns, int p, int j, long[][] rows) {
+		if (p == 0) {
+			table.addParents(j, sum(rows[0]));
+			int childColumn = table.getChildColumn();
+			long[] childRows = rows[rows.length - 1];
+			for (int k = 0; k < table.getChildRange(); k++)
+				if (and(rows[0], childColumn, k, childRows))
+					table.addCell(j, k, sum(childRows));
+			return;
+		}
+
+		int a = parentColumns[p - 1];
+		int range = bitsets[a].length;
+		for (int v = 0; v < range; v++)
+			if (and(rows[p], a, v, rows[p - 1]))
+				count(table, parentColumns, p - 1, j * range + v, rows);
+	}
+
+}
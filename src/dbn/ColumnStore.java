@@ -0,0 +1,508 @@
+package dbn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Columnar store of the coded observations of one transition. Each column is
+ * packed in the narrowest array that fits the range of its attribute: a
+ * byte[] for attributes with up to 255 values, a short[] for up to 65535 and
+ * an int[] otherwise. Values are stored as-is, reading them back with an
+ * unsigned mask and an offset of one, so that a missing value (-1) is encoded
+ * as the largest unsigned value and zero-initialized columns hold value 0.
+ * <p>
+ * Scans that only need a few columns, such as counting the observations of a
+ * family, read contiguous memory and are cache friendly.
+ * <p>
+ * Stores may share columns through {@link #window(int, int)}, so that time
+ * series are stored once and each transition refers to its time slices.
+ * <p>
+ * Columns may also be kept off-heap, in a memory-mapped file, with the same
+ * packing.
+ *
+ * @see Observations#getValue(int, int, int)
+ */
+class ColumnStore {
+
+	/**
+	 * Number of rows decoded at a time by block scans.
+	 */
+	private static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * Block buffers of the counting kernels, one set per thread, so that
+	 * counting does not allocate them for every family.
+	 */
+	private static final ThreadLocal<int[][]> BLOCK_BUFFERS = new ThreadLocal<int[][]>() {
+		@Override
+		protected int[][] initialValue() {
+			return new int[3][BLOCK_SIZE];
+		}
+	};
+
+	private final int numRows;
+
+	/**
+	 * For each column, at most one of the three arrays is not null. If none
+	 * is, the column is mapped.
+	 */
+	private final byte[][] bytes;
+
+	private final short[][] shorts;
+
+	private final int[][] ints;
+
+	/**
+	 * Memory-mapped columns, packed in widths[a] bytes per value.
+	 */
+	private final ByteBuffer[] mapped;
+
+	private final int[] widths;
+
+	/**
+	 * Allocates an empty store, with every value set to 0.
+	 *
+	 * @param ranges
+	 *            number of values of the attribute in each column
+	 * @param numRows
+	 *            number of observations
+	 */
+	ColumnStore(int[] ranges, int numRows) {
+		this(numRows, ranges.length);
+		for (int a = 0; a < ranges.length; a++)
+			allocate(a, packedWidth(ranges[a]));
+	}
+
+	/**
+	 * Creates a store with no columns allocated.
+	 */
+	private ColumnStore(int numRows, int numColumns) {
+		this(numRows, new byte[numColumns][], new short[numColumns][], new int[numColumns][],
+				new ByteBuffer[numColumns], new int[numColumns]);
+	}
+
+	private ColumnStore(int numRows, byte[][] bytes, short[][] shorts, int[][] ints, ByteBuffer[] mapped,
+			int[] widths) {
+		this.numRows = numRows;
+		this.bytes = bytes;
+		this.shorts = shorts;
+		this.ints = ints;
+		this.mapped = mapped;
+		this.widths = widths;
+	}
+
+	/**
+	 * Number of bytes needed for packing the values of an attribute.
+	 */
+	private static int packedWidth(int range) {
+		if (range <= 0xff)
+			return 1;
+		if (range <= 0xffff)
+			return 2;
+		return 4;
+	}
+
+	private int width(int column) {
+		if (bytes[column] != null)
+			return 1;
+		if (shorts[column] != null)
+			return 2;
+		if (ints[column] != null)
+			return 4;
+		return widths[column];
+	}
+
+	/**
+	 * Allocates an on-heap column.
+	 */
+	private void allocate(int column, int width) {
+		if (width == 1)
+			bytes[column] = new byte[numRows];
+		else if (width == 2)
+			shorts[column] = new short[numRows];
+		else
+			ints[column] = new int[numRows];
+	}
+
+	/**
+	 * Allocates an empty store whose columns are mapped from a file, which is
+	 * created or overwritten, so that the values are kept off-heap and paged
+	 * in by the operating system as needed.
+	 *
+	 * @see #ColumnStore(int[], int)
+	 */
+	static ColumnStore map(File file, int[] ranges, int numRows) throws IOException {
+		int numColumns = ranges.length;
+		ColumnStore store = new ColumnStore(numRows, numColumns);
+		RandomAccessFile storage = new RandomAccessFile(file, "rw");
+		try {
+			// truncate, so that all values are initialized to 0
+			storage.setLength(0);
+			FileChannel channel = storage.getChannel();
+			long offset = 0;
+			for (int a = 0; a < numColumns; a++) {
+				store.widths[a] = packedWidth(ranges[a]);
+				long size = (long) store.widths[a] * numRows;
+				store.mapped[a] = channel.map(FileChannel.MapMode.READ_WRITE, offset, size).order(
+						ByteOrder.nativeOrder());
+				offset += size;
+			}
+		} finally {
+			// mappings remain valid after the file is closed
+			storage.close();
+		}
+		return store;
+	}
+
+	/**
+	 * Packs a row-major observations matrix.
+	 */
+	ColumnStore(int[] ranges, int[][] observations) {
+		this(ranges, observations.length);
+		for (int r = 0; r < numRows; r++)
+			for (int a = 0; a < ranges.length; a++)
+				set(r, a, observations[r][a]);
+	}
+
+	/**
+	 * Returns a view of a range of consecutive columns, which shares the
+	 * values of this store instead of copying them. Used for presenting each
+	 * transition as a window over the time slices of a time series.
+	 */
+	ColumnStore window(int firstColumn, int numColumns) {
+		int to = firstColumn + numColumns;
+		return new ColumnStore(numRows, Arrays.copyOfRange(bytes, firstColumn, to),
+				Arrays.copyOfRange(shorts, firstColumn, to), Arrays.copyOfRange(ints, firstColumn, to),
+				Arrays.copyOfRange(mapped, firstColumn, to), Arrays.copyOfRange(widths, firstColumn, to));
+	}
+
+	/**
+	 * Concatenates the first numRows[i] rows of each store i into a new
+	 * on-heap store. All stores must have the same columns, packed in the same
+	 * way, as is the case for the transitions of one set of observations.
+	 */
+	static ColumnStore concat(ColumnStore[] stores, int[] numRows) {
+		int total = 0;
+		for (int i = 0; i < stores.length; i++)
+			total += numRows[i];
+
+		int numColumns = stores[0].numColumns();
+		ColumnStore pool = new ColumnStore(total, numColumns);
+		for (int a = 0; a < numColumns; a++) {
+			pool.allocate(a, stores[0].width(a));
+
+			int offset = 0;
+			for (int i = 0; i < stores.length; i++) {
+				ColumnStore store = stores[i];
+				if (pool.bytes[a] != null && store.bytes[a] != null)
+					System.arraycopy(store.bytes[a], 0, pool.bytes[a], offset, numRows[i]);
+				else if (pool.shorts[a] != null && store.shorts[a] != null)
+					System.arraycopy(store.shorts[a], 0, pool.shorts[a], offset, numRows[i]);
+				else if (pool.ints[a] != null && store.ints[a] != null)
+					System.arraycopy(store.ints[a], 0, pool.ints[a], offset, numRows[i]);
+				else
+					for (int r = 0; r < numRows[i]; r++)
+						pool.set(offset + r, a, store.get(r, a));
+				offset += numRows[i];
+			}
+		}
+		return pool;
+	}
+
+	int numRows() {
+		return numRows;
+	}
+
+	int numColumns() {
+		return bytes.length;
+	}
+
+	int get(int row, int column) {
+		byte[] b = bytes[column];
+		if (b != null)
+			return ((b[row] + 1) & 0xff) - 1;
+		short[] s = shorts[column];
+		if (s != null)
+			return ((s[row] + 1) & 0xffff) - 1;
+		int[] v = ints[column];
+		if (v != null)
+			return v[row];
+		return getMapped(row, column);
+	}
+
+	private int getMapped(int row, int column) {
+		ByteBuffer m = mapped[column];
+		switch (widths[column]) {
+		case 1:
+			return ((m.get(row) + 1) & 0xff) - 1;
+		case 2:
+			return ((m.getShort(row << 1) + 1) & 0xffff) - 1;
+		default:
+			return m.getInt(row << 2);
+		}
+	}
+
+	/**
+	 * Sets a value, which is also seen by every store sharing the column.
+	 */
+	void set(int row, int column, int value) {
+		byte[] b = bytes[column];
+		if (b != null)
+			b[row] = (byte) value;
+		else if (shorts[column] != null)
+			shorts[column][row] = (short) value;
+		else if (ints[column] != null)
+			ints[column][row] = value;
+		else if (widths[column] == 1)
+			mapped[column].put(row, (byte) value);
+		else if (widths[column] == 2)
+			mapped[column].putShort(row << 1, (short) value);
+		else
+			mapped[column].putInt(row << 2, value);
+	}
+
+	/**
+	 * Returns a copy of one observation, as a row of the observations matrix.
+	 */
+	int[] getRow(int row) {
+		int[] observation = new int[numColumns()];
+		for (int a = 0; a < observation.length; a++)
+			observation[a] = get(row, a);
+		return observation;
+	}
+
+	/**
+	 * Groups identical rows among the first numRows, by hashing their values.
+	 *
+	 * @return the group of each row, groups being numbered in order of first
+	 *         occurrence
+	 */
+	int[] groupRows(int numRows) {
+		int numColumns = numColumns();
+		int[] hashes = new int[numRows];
+		for (int a = 0; a < numColumns; a++)
+			for (int r = 0; r < numRows; r++)
+				hashes[r] = 31 * hashes[r] + get(r, a);
+
+		// open addressing table of the first row of each group, plus one
+		int capacity = Integer.highestOneBit(Math.max(2 * numRows, 1)) << 1;
+		int[] table = new int[capacity];
+		int[] groups = new int[numRows];
+		int numGroups = 0;
+
+		for (int r = 0; r < numRows; r++) {
+			int slot = (hashes[r] * 0x9e3779b9) & (capacity - 1);
+			while (true) {
+				int first = table[slot] - 1;
+				if (first < 0) {
+					table[slot] = r + 1;
+					groups[r] = numGroups++;
+					break;
+				}
+				if (hashes[first] == hashes[r] && equalRows(first, r)) {
+					groups[r] = groups[first];
+					break;
+				}
+				slot = (slot + 1) & (capacity - 1);
+			}
+		}
+		return groups;
+	}
+
+	private boolean equalRows(int row1, int row2) {
+		for (int a = 0; a < numColumns(); a++)
+			if (get(row1, a) != get(row2, a))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns a new on-heap store with a copy of some rows, in the given
+	 * order.
+	 */
+	ColumnStore select(int[] rows) {
+		int numColumns = numColumns();
+		ColumnStore selection = new ColumnStore(rows.length, numColumns);
+		for (int a = 0; a < numColumns; a++) {
+			selection.allocate(a, width(a));
+			if (bytes[a] != null) {
+				for (int i = 0; i < rows.length; i++)
+					selection.bytes[a][i] = bytes[a][rows[i]];
+			} else if (shorts[a] != null) {
+				for (int i = 0; i < rows.length; i++)
+					selection.shorts[a][i] = shorts[a][rows[i]];
+			} else if (ints[a] != null) {
+				for (int i = 0; i < rows.length; i++)
+					selection.ints[a][i] = ints[a][rows[i]];
+			} else {
+				for (int i = 0; i < rows.length; i++)
+					selection.set(i, a, getMapped(rows[i], a));
+			}
+		}
+		return selection;
+	}
+
+	/**
+	 * Decodes the values of rows [from, to) of a column into buffer.
+	 */
+	private void decode(int column, int from, int to, int[] buffer) {
+		byte[] b = bytes[column];
+		short[] s = shorts[column];
+		if (b != null)
+			for (int r = from; r < to; r++)
+				buffer[r - from] = ((b[r] + 1) & 0xff) - 1;
+		else if (s != null)
+			for (int r = from; r < to; r++)
+				buffer[r - from] = ((s[r] + 1) & 0xffff) - 1;
+		else if (ints[column] != null)
+			System.arraycopy(ints[column], from, buffer, 0, to - from);
+		else
+			for (int r = from; r < to; r++)
+				buffer[r - from] = getMapped(r, column);
+	}
+
+	/**
+	 * Adds to a table the counts of its family over the first numRows
+	 * observations. Only the columns of the family are read, a block of rows
+	 * at a time; each row is added in order, so sums are the same as adding
+	 * whole rows with {@link ContingencyTable#add(int[], double)}.
+	 */
+	void count(ContingencyTable table, double[] weights, int numRows) {
+		int[] parentColumns = table.getParentColumns();
+		int[] parentRanges = table.getParentRanges();
+		int childColumn = table.getChildColumn();
+
+		int[][] buffers = BLOCK_BUFFERS.get();
+		int[] j = buffers[0];
+		int[] missing = buffers[1];
+		int[] k = buffers[2];
+
+		for (int from = 0; from < numRows; from += BLOCK_SIZE) {
+			int to = Math.min(from + BLOCK_SIZE, numRows);
+			int size = to - from;
+
+			Arrays.fill(j, 0, size, 0);
+			Arrays.fill(missing, 0, size, 0);
+			for (int p = parentColumns.length; p-- > 0;)
+				accumulate(parentColumns[p], parentRanges[p], from, to, j, missing);
+
+			decode(childColumn, from, to, k);
+			table.add(j, missing, k, weights, from, size);
+		}
+	}
+
+	/**
+	 * Adds the values of rows [from, to) of a column as the next digit of the
+	 * parents' configuration indices, and flags rows with missing values with
+	 * a negative value in missing. Loops are branch-free so that the JIT
+	 * compiler can vectorize them.
+	 */
+	private void accumulate(int column, int range, int from, int to, int[] j, int[] missing) {
+		byte[] b = bytes[column];
+		short[] s = shorts[column];
+		int[] v = ints[column];
+		if (b != null) {
+			for (int r = from; r < to; r++) {
+				int value = ((b[r] + 1) & 0xff) - 1;
+				j[r - from] = j[r - from] * range + value;
+				missing[r - from] |= value;
+			}
+		} else if (s != null) {
+			for (int r = from; r < to; r++) {
+				int value = ((s[r] + 1) & 0xffff) - 1;
+				j[r - from] = j[r - from] * range + value;
+				missing[r - from] |= value;
+			}
+		} else if (v != null) {
+			for (int r = from; r < to; r++) {
+				j[r - from] = j[r - from] * range + v[r];
+				missing[r - from] |= v[r];
+			}
+		} else {
+			for (int r = from; r < to; r++) {
+				int value = getMapped(r, column);
+				j[r - from] = j[r - from] * range + value;
+				missing[r - from] |= value;
+			}
+		}
+	}
+
+	/**
+	 * Counts the observations, among the first numRows, that are compatible
+	 * with a configuration.
+	 *
+	 * @see LocalConfiguration#matches(int[])
+	 */
+	double count(LocalConfiguration c, double[] weights, int numRows) {
+		int[] configuration = c.toArray();
+
+		// columns constrained by the configuration
+		int[] parentColumns = c.getParentIndices();
+		int numConstraints = parentColumns.length;
+		int[] columns = Arrays.copyOf(parentColumns, numConstraints + 1);
+		if (c.getConsiderChild())
+			columns[numConstraints++] = c.getChildIndex();
+
+		int[] mismatches = BLOCK_BUFFERS.get()[0];
+
+		double count = 0;
+		for (int from = 0; from < numRows; from += BLOCK_SIZE) {
+			int to = Math.min(from + BLOCK_SIZE, numRows);
+
+			Arrays.fill(mismatches, 0, to - from, 0);
+			for (int i = 0; i < numConstraints; i++)
+				compare(columns[i], configuration[columns[i]], from, to, mismatches);
+
+			for (int r = from; r < to; r++)
+				if (mismatches[r - from] == 0)
+					count += weights[r];
+		}
+		return count;
+	}
+
+	/**
+	 * Sets mismatches to a non-zero value for the rows in [from, to) whose
+	 * column differs from value, comparing packed values directly. Loops are
+	 * branch-free so that the JIT compiler can vectorize them.
+	 */
+	private void compare(int column, int value, int from, int to, int[] mismatches) {
+		byte[] b = bytes[column];
+		short[] s = shorts[column];
+		int[] v = ints[column];
+		if (b != null) {
+			byte packed = (byte) value;
+			for (int r = from; r < to; r++)
+				mismatches[r - from] |= b[r] ^ packed;
+		} else if (s != null) {
+			short packed = (short) value;
+			for (int r = from; r < to; r++)
+				mismatches[r - from] |= s[r] ^ packed;
+		} else if (v != null) {
+			for (int r = from; r < to; r++)
+				mismatches[r - from] |= v[r] ^ value;
+		} else {
+			for (int r = from; r < to; r++)
+				mismatches[r - from] |= getMapped(r, column) ^ value;
+		}
+	}
+
+	/**
+	 * Checks if one observation is compatible with a configuration.
+	 *
+	 * @see LocalConfiguration#matches(int[])
+	 */
+	boolean matches(LocalConfiguration c, int row) {
+		int[] configuration = c.toArray();
+		for (int a : c.getParentIndices())
+			if (get(row, a) != configuration[a])
+				return false;
+		int childColumn = c.getChildIndex();
+		return !c.getConsiderChild() || get(row, childColumn) == configuration[childColumn];
+	}
+
+}
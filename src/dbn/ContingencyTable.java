@@ -0,0 +1,245 @@
+package dbn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sufficient statistics of a family (set of parents and a child), holding the
+ * counts N_ij and N_ijk of every parent configuration j and child value k.
+ * The table is filled in a single pass over the observations, each row being
+ * mapped to its cell through a mixed-radix index of the parents' values.
+ * <p>
+ * Parent configurations are indexed in the same order as they are generated
+ * by {@link LocalConfiguration#nextParents()}, i.e., the first parent is the
+ * least significant digit.
+ *
+ * @see Observations#countFamily(LocalConfiguration, int)
+ */
+public class ContingencyTable {
+
+	/**
+	 * Columns of the observation rows that hold the parents' values.
+	 */
+	private int[] parentColumns;
+
+	/**
+	 * Number of values of each parent.
+	 */
+	private int[] parentRanges;
+
+	/**
+	 * Column of the observation rows that holds the child value.
+	 */
+	private int childColumn;
+
+	private int parentsRange;
+
+	private int childRange;
+
+	/**
+	 * Nij[j] is the number of observations with parent configuration j,
+	 * regardless of the child value.
+	 */
+	private double[] Nij;
+
+	/**
+	 * Nijk[j*childRange + k] is the number of observations with parent
+	 * configuration j and child value k.
+	 */
+	private double[] Nijk;
+
+	ContingencyTable(LocalConfiguration c) {
+		this(c.attributes, c.getParentIndices(), c.getChildIndex());
+	}
+
+	/**
+	 * @param parentColumns
+	 *            columns of the parents, which are kept by the table and must
+	 *            not be modified
+	 * @throws IllegalArgumentException
+	 *             if the family has too many configurations to be indexed by
+	 *             an int
+	 */
+	ContingencyTable(List<Attribute> attributes, int[] parentColumns, int childColumn) {
+		int n = attributes.size();
+
+		this.parentColumns = parentColumns;
+		this.parentRanges = new int[parentColumns.length];
+		this.childColumn = childColumn;
+		this.childRange = attributes.get(childColumn % n).size();
+		try {
+			this.parentsRange = 1;
+			for (int p = 0; p < parentColumns.length; p++) {
+				parentRanges[p] = attributes.get(parentColumns[p] % n).size();
+				parentsRange = Math.multiplyExact(parentsRange, parentRanges[p]);
+			}
+			this.Nijk = new double[Math.multiplyExact(parentsRange, childRange)];
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Family of column " + childColumn + " with parent columns "
+					+ Arrays.toString(parentColumns) + " has too many configurations to be counted");
+		}
+		this.Nij = new double[parentsRange];
+	}
+
+	private ContingencyTable(int[] parentColumns, int[] parentRanges, int parentsRange, int childColumn,
+			int childRange) {
+		this.parentColumns = parentColumns;
+		this.parentRanges = parentRanges;
+		this.parentsRange = parentsRange;
+		this.childColumn = childColumn;
+		this.childRange = childRange;
+		this.Nij = new double[parentsRange];
+		this.Nijk = new double[parentsRange * childRange];
+	}
+
+	int[] getParentColumns() {
+		return parentColumns;
+	}
+
+	int[] getParentRanges() {
+		return parentRanges;
+	}
+
+	int getChildColumn() {
+		return childColumn;
+	}
+
+	/**
+	 * Columns of the family (parents and child), in increasing order.
+	 */
+	int[] getColumns() {
+		int[] columns = Arrays.copyOf(parentColumns, parentColumns.length + 1);
+		columns[parentColumns.length] = childColumn;
+		Arrays.sort(columns);
+		return columns;
+	}
+
+	/**
+	 * Adds an observation to the table. Observations with a missing value (-1)
+	 * in one of the parents are not counted; those with a missing child value
+	 * are counted in N_ij only.
+	 */
+	void add(int[] observation, double weight) {
+		int j = 0;
+		for (int p = parentColumns.length; p-- > 0;) {
+			int value = observation[parentColumns[p]];
+			if (value < 0)
+				return;
+			j = j * parentRanges[p] + value;
+		}
+		Nij[j] += weight;
+		int k = observation[childColumn];
+		if (k >= 0)
+			Nijk[j * childRange + k] += weight;
+	}
+
+	/**
+	 * Adds one observation of a column store to the table.
+	 *
+	 * @see #add(int[], double)
+	 */
+	void add(ColumnStore observations, int row, double weight) {
+		int j = 0;
+		for (int p = parentColumns.length; p-- > 0;) {
+			int value = observations.get(row, parentColumns[p]);
+			if (value < 0)
+				return;
+			j = j * parentRanges[p] + value;
+		}
+		Nij[j] += weight;
+		int k = observations.get(row, childColumn);
+		if (k >= 0)
+			Nijk[j * childRange + k] += weight;
+	}
+
+	/**
+	 * Adds a block of observations to the table, given the index j of their
+	 * parents' configuration, a negative value in missing if a parent is
+	 * missing, and the child value k.
+	 * 
+	 * @param offset
+	 *            index of the block's first observation in weights
+	 */
+	void add(int[] j, int[] missing, int[] k, double[] weights, int offset, int size) {
+		for (int r = 0; r < size; r++) {
+			if (missing[r] < 0)
+				continue;
+			double weight = weights[offset + r];
+			Nij[j[r]] += weight;
+			if (k[r] >= 0)
+				Nijk[j[r] * childRange + k[r]] += weight;
+		}
+	}
+
+	/**
+	 * Adds weight to N_ij of parents' configuration j.
+	 */
+	void addParents(int j, double weight) {
+		Nij[j] += weight;
+	}
+
+	/**
+	 * Adds weight to N_ijk of parents' configuration j and child value k.
+	 */
+	void addCell(int j, int k, double weight) {
+		Nijk[j * childRange + k] += weight;
+	}
+
+	/**
+	 * Adds all counts of another table of the same family to this one.
+	 */
+	void add(ContingencyTable other) {
+		for (int j = 0; j < Nij.length; j++)
+			Nij[j] += other.Nij[j];
+		for (int jk = 0; jk < Nijk.length; jk++)
+			Nijk[jk] += other.Nijk[jk];
+	}
+
+	/**
+	 * Table of the family without its last parent, whose counts are summed
+	 * over the values of that parent instead of being counted again. The
+	 * counts are the same as if counted only if no observation misses the
+	 * value of the last parent.
+	 */
+	ContingencyTable sumOutLastParent() {
+		int numParents = parentColumns.length - 1;
+		int range = parentsRange / parentRanges[numParents];
+		ContingencyTable table = new ContingencyTable(Arrays.copyOf(parentColumns, numParents),
+				Arrays.copyOf(parentRanges, numParents), range, childColumn, childRange);
+		// the last parent is the most significant digit of j
+		for (int j = 0; j < parentsRange; j++) {
+			int jMarginal = j % range;
+			table.Nij[jMarginal] += Nij[j];
+			for (int k = 0; k < childRange; k++)
+				table.Nijk[jMarginal * childRange + k] += Nijk[j * childRange + k];
+		}
+		return table;
+	}
+
+	/**
+	 * Estimated memory used by the table, in bytes.
+	 */
+	long sizeInBytes() {
+		return 128 + 8L * (Nij.length + Nijk.length) + 8L * parentColumns.length;
+	}
+
+	/**
+	 * Number of parent configurations, which is 1 when there are no parents.
+	 */
+	public int getParentsRange() {
+		return parentsRange;
+	}
+
+	public int getChildRange() {
+		return childRange;
+	}
+
+	public double getNij(int j) {
+		return Nij[j];
+	}
+
+	public double getNijk(int j, int k) {
+		return Nijk[j * childRange + k];
+	}
+
+}
@@ -106,12 +106,11 @@ public class CrossValidation {
 
 		allPassiveData = new String[N][(m + 1) * nPassive];
 
-		int[][][] usefulObservations = o.getObservationsMatrix();
 		String[][][] passiveObservations = o.getPassiveObservationsMatrix();
 		int i = 0;
 		for (int t = 0; t < T; t++)
 			for (int j = 0; j < o.numObservations(t); j++) {
-				allData[i] = usefulObservations[t][j];
+				allData[i] = o.getObservation(t, j);
 				allPassiveData[i] = passiveObservations[t][j];
 				i++;
 			}
@@ -668,19 +667,18 @@ public class CrossValidation {
 			for (i = 0; i < testSize; i++) {
 				
 				boolean b =true;
-				int[][][] fMatrix = forecast.getObservationsMatrix();
 				int p=0;
 				//for (int predictor : forecastAttributes) {
 					//System.out.println("predictor "+predictor);
 				
 				
-					output.append(o.getAttributes().get(17).get(fMatrix[0][i][m * n + 17]) + "\t");
+					output.append(o.getAttributes().get(17).get(forecast.getValue(0, i, m * n + 17)) + "\t");
 					
-					if(o.getAttributes().get(17).get(fMatrix[0][i][m * n + 17])==null) b=false;
+					if(o.getAttributes().get(17).get(forecast.getValue(0, i, m * n + 17))==null) b=false;
 										
-					//System.out.println("p "+o.getAttributes().get(17).get(fMatrix[0][i][m * n + 17]));
+					//System.out.println("p "+o.getAttributes().get(17).get(forecast.getValue(0, i, m * n + 17)));
 					if(b) {
-						p=(int)Double.parseDouble(o.getAttributes().get(17).get(fMatrix[0][i][m * n + 17]));
+						p=(int)Double.parseDouble(o.getAttributes().get(17).get(forecast.getValue(0, i, m * n + 17)));
 					
 					}
 					
@@ -0,0 +1,194 @@
+package dbn;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the contingency tables of families, keyed by transition,
+ * parent columns (past parents and present parents, in order) and child
+ * column. The same families are counted several times during learning: the
+ * past-only and single present parent families scored by
+ * {@link Scores#evaluate(ScoringFunction)} are scored again when building
+ * bcDBNs and cDBNs, and the families of the final network are counted again
+ * for learning its parameters and score.
+ * <p>
+ * Moreover, the table of a family with a present parent holds the counts of
+ * the same family without it, which are summed from it and cached in turn,
+ * so that past-only families are not counted at all when their counts can
+ * be summed.
+ * <p>
+ * Tables are evicted in least recently used order when their estimated size
+ * exceeds the memory budget. The cache is split in stripes, each with its own
+ * lock and a share of the budget, so that threads evaluating scores seldom
+ * wait for one another.
+ *
+ * @see Observations#cacheFamilyCounts(long)
+ */
+class FamilyCountCache {
+
+	private static final int STRIPE_BITS = 4;
+
+	private static final int NUM_STRIPES = 1 << STRIPE_BITS;
+
+	private static class Key {
+
+		private final int transition;
+
+		private final int[] parentColumns;
+
+		private final int childColumn;
+
+		private final int hash;
+
+		/**
+		 * Keys used for lookups only may share the parent columns of the
+		 * caller, the ones stored in the cache have their own copy.
+		 */
+		private Key(int transition, int[] parentColumns, int childColumn) {
+			this.transition = transition;
+			this.parentColumns = parentColumns;
+			this.childColumn = childColumn;
+			this.hash = 31 * (31 * transition + Arrays.hashCode(parentColumns)) + childColumn;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return transition == other.transition && childColumn == other.childColumn
+					&& Arrays.equals(parentColumns, other.parentColumns);
+		}
+	}
+
+	private static class Stripe {
+
+		/**
+		 * Tables in access order, from least to most recently used.
+		 */
+		private final LinkedHashMap<Key, ContingencyTable> tables = new LinkedHashMap<Key, ContingencyTable>(16,
+				0.75f, true);
+
+		private long bytes;
+	}
+
+	private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+	/**
+	 * Memory budget of each stripe, in bytes.
+	 */
+	private final long maxStripeBytes;
+
+	/**
+	 * Whether tables may be summed over a parent, which needs observations
+	 * without missing values and with integer weights, so that sums are
+	 * exact.
+	 */
+	private final boolean summable;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param maxBytes
+	 *            memory budget for the cached tables, in bytes
+	 * @param summable
+	 *            whether past-only families may be summed from the families
+	 *            with a present parent
+	 */
+	FamilyCountCache(long maxBytes, boolean summable) {
+		this.maxStripeBytes = maxBytes / NUM_STRIPES;
+		this.summable = summable;
+		for (int s = 0; s < NUM_STRIPES; s++)
+			stripes[s] = new Stripe();
+	}
+
+	/**
+	 * Stripe of a key, taken from the high bits of its mixed hash, so that
+	 * keys of a stripe still spread over all the buckets of its map.
+	 */
+	private Stripe stripe(Key key) {
+		return stripes[(key.hash * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS)];
+	}
+
+	/**
+	 * Returns the cached table of a family, or null if it is not cached.
+	 */
+	ContingencyTable get(int transition, int[] parentColumns, int childColumn) {
+		Key key = new Key(transition, parentColumns, childColumn);
+		Stripe stripe = stripe(key);
+		ContingencyTable table;
+		synchronized (stripe) {
+			table = stripe.tables.get(key);
+		}
+		if (table != null)
+			hits.increment();
+		else
+			misses.increment();
+		return table;
+	}
+
+	/**
+	 * Caches the table of a family, evicting the least recently used tables
+	 * of its stripe if needed. Tables larger than the budget of a stripe are
+	 * not cached.
+	 */
+	void put(int transition, int[] parentColumns, int childColumn, ContingencyTable table) {
+		long size = table.sizeInBytes();
+		if (size > maxStripeBytes)
+			return;
+
+		Key key = new Key(transition, parentColumns.clone(), childColumn);
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			ContingencyTable previous = stripe.tables.put(key, table);
+			stripe.bytes += size - (previous != null ? previous.sizeInBytes() : 0);
+
+			Iterator<Map.Entry<Key, ContingencyTable>> eldest = stripe.tables.entrySet().iterator();
+			while (stripe.bytes > maxStripeBytes) {
+				stripe.bytes -= eldest.next().getValue().sizeInBytes();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Caches the table of a family without its last parent, summed from the
+	 * table of the whole family, unless it is already cached or the
+	 * observations cannot be summed.
+	 *
+	 * @see ContingencyTable#sumOutLastParent()
+	 */
+	void putMarginal(int transition, ContingencyTable table) {
+		if (!summable)
+			return;
+		int[] parentColumns = table.getParentColumns();
+		Key key = new Key(transition, Arrays.copyOf(parentColumns, parentColumns.length - 1),
+				table.getChildColumn());
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			// not an access, which would keep the table from being evicted
+			if (stripe.tables.containsKey(key))
+				return;
+		}
+		put(transition, key.parentColumns, key.childColumn, table.sumOutLastParent());
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+}
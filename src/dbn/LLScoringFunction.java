@@ -13,56 +13,76 @@ public class LLScoringFunction implements ScoringFunction {
 	@Override
 	public double evaluate(Observations observations, int transition, List<Integer> parentNodesPast,
 			Integer parentNodePresent, int childNode) {
+		return evaluate(observations, transition, ParentSets.toArray(parentNodesPast),
+				parentNodePresent != null ? parentNodePresent : -1, childNode);
+	}
 
-		LocalConfiguration c = new LocalConfiguration(observations.getAttributes(), observations.getMarkovLag(),
-				parentNodesPast, parentNodePresent, childNode);
-
-		double score = 0;
-
-		do {
+	@Override
+	public double evaluate_2(Observations observations, int transition, List<Integer> parentNodesPast,
+			List<Integer> parentNodePresent, int childNode) {
+		return evaluate_2(observations, transition, ParentSets.toArray(parentNodesPast),
+				ParentSets.toArray(parentNodePresent), childNode);
+	}
 
-			c.setConsiderChild(false);
-			double Nij = observations.count(c, transition);
-//			System.out.println("Node: " + childNode + " Parents" + parentNodesPast.toString() + " ParentPresent: " +  parentNodePresent + " NIJ: " + Nij);
-			c.setConsiderChild(true);
+	/**
+	 * Scores a family with several present parents from the columns of its
+	 * nodes, without building its configuration.
+	 */
+	@Override
+	public double evaluate_2(Observations observations, int transition, int[] parentNodesPast,
+			int[] parentNodesPresent, int childNode) {
 
-			do {
+		int presentSlice = observations.numAttributes() * observations.getMarkovLag();
 
-				double Nijk = observations.count(c, transition);
-//				System.out.println("Configuration: " + c + " NIJK: " + Nijk);
-				if ((double) Math.round(Nijk * 1000d) / 1000d != 0 && Nijk != Nij) {
-					score += Nijk * (Math.log(Nijk) - Math.log(Nij));
-//					if(Double.isNaN(score)) {
-//						System.out.println("nijk: " + Nijk + " nij:" + Nij);
-//					}
+		// past parents are already shifted, present parents follow them
+		int[] parentColumns = Arrays.copyOf(parentNodesPast, parentNodesPast.length + parentNodesPresent.length);
+		for (int p = 0; p < parentNodesPresent.length; p++)
+			parentColumns[parentNodesPast.length + p] = presentSlice + parentNodesPresent[p];
 
-				}
-			} while (c.nextChild());
-		} while (c.nextParents());
+		return evaluate(observations.countFamily(parentColumns, presentSlice + childNode, transition));
+	}
 
-		return score;
+	/**
+	 * Scores a family from the columns of its parents, without building its
+	 * configuration.
+	 */
+	@Override
+	public double evaluate(Observations observations, int transition, int[] parentNodesPast, int parentNodePresent,
+			int childNode) {
+		ContingencyTable table = observations.countFamily(parentNodesPast, parentNodePresent, childNode, transition);
+		return evaluate(observations, transition, table, parentNodesPast, parentNodePresent, childNode);
 	}
 
 	@Override
-	public double evaluate_2(Observations observations, int transition, List<Integer> parentNodesPast,
-			List<Integer> parentNodePresent, int childNode) {
+	public double evaluate(Observations observations, int transition, ContingencyTable table,
+			int[] parentNodesPast, int parentNodePresent, int childNode) {
+		return evaluate(table);
+	}
 
-		LocalConfiguration c = new LocalConfiguration(observations.getAttributes(), observations.getMarkovLag(),
-				parentNodesPast, parentNodePresent, childNode);
+	/**
+	 * Calculates the log-likelihood of a family from its contingency table.
+	 */
+	protected double evaluate(ContingencyTable table) {
 
 		double score = 0;
-
-		do {
-			c.setConsiderChild(false);
-			double Nij = observations.count(c, transition);
-			c.setConsiderChild(true);
-			do {
-				double Nijk = observations.count(c, transition);
-				if ((double) Math.round(Nijk * 1000d) / 1000d != 0 && Nijk != Nij) {
-					score += Nijk * (Math.log(Nijk) - Math.log(Nij));
+		int parentsRange = table.getParentsRange();
+		int childRange = table.getChildRange();
+
+		for (int j = 0; j < parentsRange; j++) {
+			double Nij = table.getNij(j);
+			if (Nij == 0)
+				continue;
+			// integer counts take their logarithms from the table
+			double logNij = LogTable.log(Nij);
+			for (int k = 0; k < childRange; k++) {
+				double Nijk = table.getNijk(j, k);
+				// counts rounding to 0 are skipped, which needs no rounding
+				// unless they are fractional
+				if (Nijk != 0 && (Nijk >= 1 || (double) Math.round(Nijk * 1000d) / 1000d != 0) && Nijk != Nij) {
+					score += Nijk * (LogTable.log(Nijk) - logNij);
 				}
-			} while (c.nextChild());
-		} while (c.nextParents());
+			}
+		}
 
 		return score;
 	}
@@ -66,6 +66,32 @@ public class LocalConfiguration extends Configuration {
 		this(attributes, markovLag, parentNodes, (List<Integer>) null, childNode);
 	}
 
+	/**
+	 * @param parentNodesPast
+	 *            parent nodes in t, already shifted, as decoded by
+	 *            {@link ParentSets#unrank(long)}
+	 * @param parentNodePresent
+	 *            parent node in t+1, negative if there is none
+	 */
+	public LocalConfiguration(List<Attribute> attributes, int markovLag, int[] parentNodesPast,
+			int parentNodePresent, int childNode) {
+		super(attributes, markovLag);
+		this.reset();
+
+		int n = attributes.size();
+		if (parentNodePresent < 0)
+			parentIndices = parentNodesPast.clone();
+		else {
+			parentIndices = Arrays.copyOf(parentNodesPast, parentNodesPast.length + 1);
+			parentIndices[parentNodesPast.length] = parentNodePresent + markovLag * n;
+		}
+
+		resetParents();
+
+		this.childNode = childNode;
+		resetChild();
+	}
+
 	/**
 	 * Sets whether the child value should be considered when matching an
 	 * observation with the current configuration.
@@ -76,19 +102,29 @@ public class LocalConfiguration extends Configuration {
 		considerChild = state;
 	}
 
-	public boolean matches(int[] observation) {
+	boolean getConsiderChild() {
+		return considerChild;
+	}
 
-		int n = attributes.size();
+	/**
+	 * Column of the observations that holds the child value.
+	 */
+	int getChildIndex() {
+		return childNode + attributes.size() * markovLag;
+	}
 
-		for (int i = 0; i < configuration.length; i++) {
-			if (configuration[i] > -1) {
-				if (observation[i] != configuration[i]) {
-					if (considerChild || i != childNode + n * markovLag) {
-						return false;
-					}
-				}
+	public boolean matches(int[] observation) {
+
+		// only the columns of the parents and the child are set
+		for (int i = 0; i < parentIndices.length; i++) {
+			if (observation[parentIndices[i]] != configuration[parentIndices[i]]) {
+				return false;
 			}
 		}
+		if (considerChild) {
+			int childIndex = getChildIndex();
+			return observation[childIndex] == configuration[childIndex];
+		}
 		return true;
 	}
 
@@ -159,6 +195,14 @@ public class LocalConfiguration extends Configuration {
 		configuration[n * markovLag + childNode] = 0;
 	}
 
+	/**
+	 * Columns of the observations that hold the parents' values, in the order
+	 * in which they are incremented by {@link #nextParents()}.
+	 */
+	int[] getParentIndices() {
+		return parentIndices;
+	}
+
 	public int getParentsRange() {
 		if (parentIndices.length == 0) {
 			return 0;
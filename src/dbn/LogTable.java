@@ -0,0 +1,58 @@
+package dbn;
+
+/**
+ * Natural logarithms of the integers, shared by all threads. Counts are
+ * integers when all observations have integer weights, which is the case
+ * unless they were weighted by EM or clustering, so scoring takes most of
+ * its logarithms from the table. Entries are computed with
+ * {@link Math#log(double)}, so that scores are the same as without the table.
+ * <p>
+ * The table grows on demand, up to MAX_SIZE entries, and is replaced rather
+ * than modified, so that it is read without synchronization.
+ */
+final class LogTable {
+
+	private static final int MAX_SIZE = 1 << 22;
+
+	private static volatile double[] logs = logs(1 << 10);
+
+	private LogTable() {
+	}
+
+	private static double[] logs(int size) {
+		double[] logs = new double[size];
+		logs[0] = Double.NEGATIVE_INFINITY;
+		for (int i = 1; i < size; i++)
+			logs[i] = Math.log(i);
+		return logs;
+	}
+
+	/**
+	 * Same as {@link Math#log(double)}.
+	 */
+	static double log(double x) {
+		int i = (int) x;
+		if (i != x || i < 0)
+			return Math.log(x);
+
+		double[] table = logs;
+		if (i < table.length)
+			return table[i];
+		if (i >= MAX_SIZE)
+			return Math.log(x);
+		return grow(i)[i];
+	}
+
+	private static synchronized double[] grow(int i) {
+		double[] table = logs;
+		if (i >= table.length) {
+			int size = table.length;
+			while (size <= i)
+				size <<= 1;
+			double[] grown = logs(size);
+			logs = table = grown;
+		}
+		return table;
+	}
+
+}
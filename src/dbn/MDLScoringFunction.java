@@ -5,33 +5,81 @@ import java.util.List;
 public class MDLScoringFunction extends LLScoringFunction {
 	private double epsilon = 0.0000000001;
 
+	/**
+	 * Scores a family with several present parents. The methods taking lists
+	 * are adapted to this one by the superclass.
+	 */
 	@Override
-	public double evaluate(Observations observations, int transition, List<Integer> parentNodesPast,
-			Integer parentNodePresent, int childNode) {
+	public double evaluate_2(Observations observations, int transition, int[] parentNodesPast,
+			int[] parentNodesPresent, int childNode) {
 
-		LocalConfiguration c = new LocalConfiguration(observations.getAttributes(), observations.getMarkovLag(),
-				parentNodesPast, parentNodePresent, childNode);
+		double score = super.evaluate_2(observations, transition, parentNodesPast, parentNodesPresent, childNode);
 
-		double score = super.evaluate(observations, transition, parentNodesPast, parentNodePresent, childNode);
+		// regularizer term
+		List<Attribute> attributes = observations.getAttributes();
+		int parentsRange = parentNodesPast.length == 0 && parentNodesPresent.length == 0 ? 0 : 1;
+		for (int parentNode : parentNodesPast)
+			parentsRange *= attributes.get(parentNode % attributes.size()).size();
+		for (int parentNode : parentNodesPresent)
+			parentsRange *= attributes.get(parentNode).size();
+		score -= penalty(observations, transition, parentsRange, childNode);
+
+		return score;
+	}
+
+	/**
+	 * Scores a family from its counts. The other evaluate methods are adapted
+	 * to this one by the superclass.
+	 */
+	@Override
+	public double evaluate(Observations observations, int transition, ContingencyTable table,
+			int[] parentNodesPast, int parentNodePresent, int childNode) {
+
+		double score = super.evaluate(observations, transition, table, parentNodesPast, parentNodePresent, childNode);
 
 		// regularizer term
-		score -= 0.5 * Math.log(observations.numObservations(transition) + epsilon) * c.getNumParameters();
+		score -= penalty(observations, transition, parentNodesPast, parentNodePresent, childNode);
 		return score;
 	}
 
+	/**
+	 * Since the log-likelihood is never positive, the score of a family is at
+	 * most minus its penalty, which grows with the parents' ranges. A family
+	 * whose penalty alone exceeds the loss of a known score cannot be optimal,
+	 * and neither can any family with more parents (de Campos and Ji, 2011).
+	 */
 	@Override
-	public double evaluate_2(Observations observations, int transition, List<Integer> parentNodesPast,
-			List<Integer> parentNodePresent, int childNode) {
+	public double upperBound(Observations observations, int transition, int[] parentNodesPast,
+			int parentNodePresent, int childNode) {
+		return -penalty(observations, transition, parentNodesPast, parentNodePresent, childNode);
+	}
 
-		LocalConfiguration c = new LocalConfiguration(observations.getAttributes(), observations.getMarkovLag(),
-				parentNodesPast, parentNodePresent, childNode);
+	/**
+	 * Regularizer term of a family, computed from the attributes' ranges as
+	 * {@link LocalConfiguration#getNumParameters()}.
+	 */
+	private double penalty(Observations observations, int transition, int[] parentNodesPast,
+			int parentNodePresent, int childNode) {
 
-		double score = super.evaluate_2(observations, transition, parentNodesPast, parentNodePresent, childNode);
+		List<Attribute> attributes = observations.getAttributes();
+		int n = attributes.size();
 
-		// regularizer term
-		score -= 0.5 * Math.log(observations.numObservations(transition) + epsilon) * c.getNumParameters();
+		int parentsRange = parentNodesPast.length == 0 && parentNodePresent < 0 ? 0 : 1;
+		for (int parentNode : parentNodesPast)
+			parentsRange *= attributes.get(parentNode % n).size();
+		if (parentNodePresent >= 0)
+			parentsRange *= attributes.get(parentNodePresent).size();
 
-		return score;
+		return penalty(observations, transition, parentsRange, childNode);
+	}
+
+	/**
+	 * Regularizer term of a family given the number of configurations of its
+	 * parents, 0 if it has none.
+	 */
+	private double penalty(Observations observations, int transition, int parentsRange, int childNode) {
+		int numParameters = parentsRange * (observations.getAttributes().get(childNode).size() - 1);
+		return 0.5 * Math.log(observations.numObservations(transition) + epsilon) * numParameters;
 	}
 
 }
@@ -79,7 +79,6 @@ public class MultiNet{
 	}
 	
 	private double[][][] computeClusters(List<DynamicBayesNet> net, boolean stationaryProcess, boolean mostProbable) {
-		int[][][] observations = this.o.getObservationsMatrix();
 		int numSubjects = this.o.getNumSubjects();
 		int numTransitions = this.o.getNumTransitions();
 		int numAttributes = this.o.getAttributes().size();
@@ -96,6 +95,10 @@ public class MultiNet{
 
 		
 		for(int s = 0; s < numSubjects; s++) {
+			int[][] observations = new int[numTransitions][];
+			for(int t = 0; t < numTransitions; t++) {
+				observations[t] = this.o.getObservation(t, s);
+			}
 			probabilityMax = Double.NEGATIVE_INFINITY;
 			cluster = 0;
 			max_cluster = 0;
@@ -104,9 +107,9 @@ public class MultiNet{
 				for(int t = 0; t < numTransitions; t++) {
 					for(int n = 0; n < numAttributes; n++) {
 						if(stationaryProcess) {
-							probabilityAux += Math.log(dbn.transitionNets.get(0).getParameters(n, observations[t][s]).get(0));
+							probabilityAux += Math.log(dbn.transitionNets.get(0).getParameters(n, observations[t]).get(0));
 						}else{
-							probabilityAux += Math.log(dbn.transitionNets.get(t).getParameters(n, observations[t][s]).get(0));
+							probabilityAux += Math.log(dbn.transitionNets.get(t).getParameters(n, observations[t]).get(0));
 						}
 					}
 				}
@@ -224,14 +227,12 @@ public class MultiNet{
 		Observations oNew;
 		double[][] clust;
 		int numClusters = networks.size();
-		int[][][] obs = o.getObservationsMatrix();
-		List<Attribute> attributes = o.getAttributes();
 		List<DynamicBayesNet> networksNew = new ArrayList<DynamicBayesNet>(numClusters);
 		
 		
 		for(int c = 0; c < numClusters; c++) {
 			clust = selectCluster(counts, c);
-			oNew = new Observations(attributes, obs, clust);
+			oNew = o.withCounts(clust);
 			s =  new Scores(oNew, this.maxParents, this.stationaryProcess, false, this.multithread);
 			s.evaluate(new LLScoringFunction());
 			if(this.is_bcDBN) {
@@ -282,8 +283,6 @@ public class MultiNet{
 	
 	public double getBICScore() {
 		Observations oNew;
-		List<Attribute> attributes = this.o.getAttributes();
-		int[][][] obs = this.o.getObservationsMatrix();
 		int c = 0;
 		double score = 0;
 		double numParam = 0;
@@ -292,7 +291,7 @@ public class MultiNet{
 		
 		for(DynamicBayesNet dbn : this.networks) {
 			clust = selectCluster(this.clustering, c);
-			oNew = new Observations(attributes, obs, clust);
+			oNew = o.withCounts(clust);
 			score += 2*dbn.getScore(oNew, new LLScoringFunction(), this.stationaryProcess);
 			numParam += dbn.getNumberParameters(oNew);
 			c += 1;
@@ -306,8 +305,6 @@ public class MultiNet{
 	public double getScore(List<DynamicBayesNet> net, double[][][] clustering,  boolean stationaryProcess){
 		Observations oNew;
 		int numSubjects = o.getNumSubjects();
-		int[][][] obs = o.getObservationsMatrix();
-		List<Attribute> attributes = o.getAttributes();
 		int numClusters = networks.size();
 		double[] alpha;
 		double[][] clust;
@@ -319,7 +316,7 @@ public class MultiNet{
 		alpha = getAlpha(clustering);
 		for(DynamicBayesNet dbn : net) {
 			clust = selectCluster(clustering, c);
-			oNew = new Observations(attributes, obs, clust);
+			oNew = o.withCounts(clust);
 			netscore1 += dbn.getScore(oNew, new LLScoringFunction(), stationaryProcess);
 			c += 1;
 		}
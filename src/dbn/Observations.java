@@ -14,6 +14,7 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
@@ -26,19 +27,23 @@ import utils.Utils;
 public class Observations {
 
 	/**
-	 * Three-dimensional matrix of coded observation data which will be used for
-	 * learning a dynamic Bayesian network.
+	 * Coded observation data which will be used for learning a dynamic
+	 * Bayesian network, stored column by column.
 	 * <ul>
-	 * <li>the 1st index refers to the transition {t - markovLag + 1, ...
+	 * <li>the array index refers to the transition {t - markovLag + 1, ...
 	 * ,t}->t+1;
-	 * <li>the 2nd index refers to the the subject (set of observed attributes);
-	 * <li>the 3rd index refers to the attribute and lies within the range [0,
+	 * <li>each row refers to the the subject (set of observed attributes);
+	 * <li>each column refers to the attribute and lies within the range [0,
 	 * (1 + markovLag)*n[, where [0, markovLag*n[ refers to attributes in the
 	 * past and [markovLag*n, (1 + markovLag)*n[ refers to attributes in time
 	 * t+1.
 	 * </ul>
+	 * When read from a file, each time series is stored once and transitions
+	 * are windows over its time slices.
+	 * 
+	 * @see #getValue(int, int, int)
 	 */
-	private int[][][] usefulObservations;
+	private ColumnStore[] usefulObservations;
 	
 
 	/**
@@ -104,12 +109,47 @@ public class Observations {
 	 * Markov.
 	 */
 	private int markovLag = 1;
+
+	/**
+	 * File to which the observations are memory-mapped, or null if they are
+	 * kept on the heap.
+	 */
+	private File storageFile;
 	
 	/**
 	 * Number of subjects with a certain observation
 	 */
 	private double[][] counts;
 
+	/**
+	 * Cache of sufficient statistics, one AD-tree per transition. If null,
+	 * counts are obtained by scanning the observations.
+	 */
+	private ADTree[] adTrees;
+
+	/**
+	 * Bitmap index of the observations, one per transition. If null, counts are
+	 * obtained by scanning the observations.
+	 */
+	private BitmapIndex[] bitmapIndices;
+
+	/**
+	 * Observations of all transitions in a single store, with their weights,
+	 * used for counting in a stationary process if available.
+	 * 
+	 * @see #poolTransitions()
+	 */
+	private ColumnStore pooledObservations;
+
+	private double[] pooledCounts;
+
+	/**
+	 * Contingency tables of recently counted families, if enabled.
+	 * 
+	 * @see #cacheFamilyCounts(long)
+	 */
+	private FamilyCountCache familyCache;
+
 	/**
 	 * Default constructor when reading observations from a file.
 	 * 
@@ -161,9 +201,22 @@ public class Observations {
 	 *            DBN.
 	 */
 	public Observations(String usefulObsFileName, String passiveObsFileName, Integer markovLag) {
+		this(usefulObsFileName, passiveObsFileName, markovLag, null);
+	}
+
+	/**
+	 * Reads observations from a file, keeping them off-heap in a
+	 * memory-mapped storage file, so that cohorts larger than the heap can be
+	 * learnt from. The storage file is created, or overwritten, and must not
+	 * be modified while the observations are in use.
+	 * 
+	 * @see #Observations(String, String, Integer)
+	 */
+	public Observations(String usefulObsFileName, String passiveObsFileName, Integer markovLag, File storageFile) {
 		this.usefulObservationsFileName = usefulObsFileName;
 		this.passiveObservationsFileName = passiveObsFileName;
 		this.markovLag = markovLag != null ? markovLag : 1;
+		this.storageFile = storageFile;
 		readFromFiles();
 	}
 
@@ -178,11 +231,15 @@ public class Observations {
 	 * @see DynamicBayesNet#generateObservations(int)
 	 */
 	public Observations(List<Attribute> attributes, int[][][] observationsMatrix, double[][] counts) {
+		this(attributes, pack(attributes, observationsMatrix, observationsMatrix[0][0].length), counts);
+	}
+
+	private Observations(List<Attribute> attributes, ColumnStore[] observations, double[][] counts) {
 		this.attributes = attributes;
-		this.markovLag = observationsMatrix[0][0].length / attributes.size() - 1;
-		this.usefulObservations = observationsMatrix;
+		this.markovLag = observations[0].numColumns() / attributes.size() - 1;
+		this.usefulObservations = observations;
 		this.counts = counts;
-		numSubjects = new int[observationsMatrix.length];
+		numSubjects = new int[observations.length];
 
 		// assume constant number of observations per transition
 //		int totalNumSubjects = observationsMatrix[0].length;
@@ -218,14 +275,137 @@ public class Observations {
 		this.passiveObservationsHeader = originalObservations.passiveObservationsHeader;
 		this.passiveObservationsFileName = originalObservations.passiveObservationsFileName;
 		this.subjectIsPresent = originalObservations.subjectIsPresent;
-		this.usefulObservations = newObservationsMatrix;
+		this.usefulObservations = pack(attributes, newObservationsMatrix, (markovLag + 1) * attributes.size());
 		this.usefulObservationsHeader = originalObservations.usefulObservationsHeader;
 		this.usefulObservationsFileName = originalObservations.usefulObservationsFileName;
 
 		this.numSubjects = new int[usefulObservations.length];
 
 		// assume constant number of observations per transition
-		Arrays.fill(numSubjects, usefulObservations[0].length);
+		Arrays.fill(numSubjects, usefulObservations[0].numRows());
+	}
+
+	/**
+	 * Returns observations that share the data of these, with a new weight
+	 * for each observation. Used for learning mixtures of networks.
+	 * 
+	 * @see MultiNet
+	 */
+	public Observations withCounts(double[][] counts) {
+		return new Observations(attributes, usefulObservations, counts);
+	}
+
+	/**
+	 * Merges the identical observations of each transition into a single one,
+	 * whose weight is the sum of their weights. Counts, and thus scores and
+	 * parameters, are the same as for these observations, but every scan is
+	 * shorter by the duplication factor.
+	 * <p>
+	 * Compacted observations no longer follow the order of the subjects, so
+	 * they are only meant for learning, not for imputation, forecasting or
+	 * output.
+	 * 
+	 * @return these observations if no transition has identical ones, so that
+	 *         time series stay stored once
+	 */
+	public Observations compact() {
+		int T = numTransitions();
+		int[][] groups = new int[T][];
+		int[] numGroups = new int[T];
+		boolean hasDuplicates = false;
+
+		for (int t = 0; t < T; t++) {
+			int N = numObservations(t, true);
+			groups[t] = usefulObservations[t].groupRows(N);
+			for (int i = 0; i < N; i++)
+				numGroups[t] = Math.max(numGroups[t], groups[t][i] + 1);
+			hasDuplicates |= numGroups[t] < N;
+		}
+
+		// copying would only lose the layout of the time series
+		if (!hasDuplicates)
+			return this;
+
+		ColumnStore[] compacted = new ColumnStore[T];
+		double[][] newCounts = new double[T][];
+
+		for (int t = 0; t < T; t++) {
+			int N = numObservations(t, true);
+			int[] firstRows = new int[numGroups[t]];
+			newCounts[t] = new double[numGroups[t]];
+			for (int i = N; i-- > 0;)
+				firstRows[groups[t][i]] = i;
+			for (int i = 0; i < N; i++)
+				newCounts[t][groups[t][i]] += counts[t][i];
+
+			compacted[t] = usefulObservations[t].select(firstRows);
+		}
+
+		Observations compactedObservations = new Observations(attributes, compacted, newCounts);
+		compactedObservations.numSubjects = numSubjects.clone();
+		compactedObservations.numMissing = numMissing != null ? numMissing.clone() : null;
+		compactedObservations.usefulObservationsHeader = usefulObservationsHeader;
+		compactedObservations.usefulObservationsFileName = usefulObservationsFileName;
+		return compactedObservations;
+	}
+
+	/**
+	 * Lays out the observations of all transitions in a single store, so that
+	 * counting for a stationary process (negative transition) is one scan over
+	 * contiguous columns instead of one scan per transition. Identical
+	 * observations of different transitions are merged as in
+	 * {@link #compact()}. Takes about as much memory as the observations of
+	 * all transitions, which is markovLag+1 times that of time series stored
+	 * once, so it is only worth building for a stationary process counted by
+	 * scanning, without an AD-tree or bitmap index.
+	 */
+	public Observations poolTransitions() {
+		int T = numTransitions();
+		int[] numRows = new int[T];
+		for (int t = 0; t < T; t++)
+			numRows[t] = numObservations(t, true);
+		ColumnStore pool = ColumnStore.concat(usefulObservations, numRows);
+
+		int N = pool.numRows();
+		int[] groups = pool.groupRows(N);
+		int numGroups = 0;
+		for (int i = 0; i < N; i++)
+			numGroups = Math.max(numGroups, groups[i] + 1);
+
+		int[] firstRows = new int[numGroups];
+		double[] weights = new double[numGroups];
+		for (int i = N; i-- > 0;)
+			firstRows[groups[i]] = i;
+		int i = 0;
+		for (int t = 0; t < T; t++)
+			for (int r = 0; r < numRows[t]; r++)
+				weights[groups[i++]] += counts[t][r];
+
+		pooledObservations = pool.select(firstRows);
+		pooledCounts = weights;
+		return this;
+	}
+
+	/**
+	 * Number of values of the attribute in each column of the observations.
+	 */
+	private static int[] columnRanges(List<Attribute> attributes, int numColumns) {
+		int n = attributes.size();
+		int[] ranges = new int[numColumns];
+		for (int a = 0; a < numColumns; a++)
+			ranges[a] = attributes.get(a % n).size();
+		return ranges;
+	}
+
+	/**
+	 * Converts a three-dimensional observations matrix to column stores.
+	 */
+	private static ColumnStore[] pack(List<Attribute> attributes, int[][][] observationsMatrix, int numColumns) {
+		int[] ranges = columnRanges(attributes, numColumns);
+		ColumnStore[] observations = new ColumnStore[observationsMatrix.length];
+		for (int t = 0; t < observations.length; t++)
+			observations[t] = new ColumnStore(ranges, observationsMatrix[t]);
+		return observations;
 	}
 	
 	
@@ -334,15 +514,12 @@ public class Observations {
 
 		try {
 
-			// open and parse the useful observations csv file
+			// open and parse the useful observations csv file, streaming it
+			// twice instead of holding all its lines
 			CSVReader reader = new CSVReader(new FileReader(usefulObservationsFileName));
-			List<String[]> lines = reader.readAll();
-			reader.close();
-
-			ListIterator<String[]> li = lines.listIterator();
 
 			// get first line
-			String[] header = li.next();
+			String[] header = reader.readNext();
 			
 			//System.out.println("number of time slices: ");
 
@@ -359,20 +536,7 @@ public class Observations {
 
 			usefulObservationsHeader = processHeader(header, numAttributes);
 
-			// allocate observations matrix
-			int totalNumSubjects = lines.size()-1;
-			usefulObservations = new int[numTransitions][totalNumSubjects][(markovLag + 1) * numAttributes];
-			numSubjects = new int[numTransitions];
-			numMissing = new int[numTransitions];
-			this.counts = new double[numTransitions][totalNumSubjects];
-			subjectIsPresent = new LinkedHashMap<String, boolean[]>((int) Math.ceil(totalNumSubjects / 0.75));
-			
-//			Initialization of counts
-			for(int i = 0; i < numTransitions;i++) {
-				Arrays.fill(this.counts[i], 1);
-			}
-
-			String[] dataLine = li.next();
+			String[] dataLine = reader.readNext();
 			
 			//System.out.println("totalNumSubjects 1:"+totalNumSubjects);
 
@@ -397,15 +561,10 @@ public class Observations {
 				attributes.add(attribute);
 			}
 
-			// rewind one line
-			li.previous();
-
-			// auxiliary variable
-			String[][] observations = new String[markovLag + 1][numAttributes];
-
-			while (li.hasNext()) {
-
-				dataLine = li.next();
+			// first pass: collect the values of all attributes, so that the
+			// observations can be packed according to the attributes' ranges
+			int totalNumSubjects = 0;
+			for (; dataLine != null; dataLine = reader.readNext()) {
 
 				// check for line sanity
 				if (dataLine.length != numTimeSlices * numAttributes + 1) {
@@ -418,9 +577,57 @@ public class Observations {
 					System.exit(1);
 				}
 
+				for (int j = 0; j < numTimeSlices * numAttributes; j++) {
+					String value = dataLine[1 + j];
+					if (!(value.length() == 0 || value.equals("?")))
+						attributes.get(j % numAttributes).add(value);
+				}
+				totalNumSubjects++;
+			}
+			reader.close();
+
+			numSubjects = new int[numTransitions];
+			numMissing = new int[numTransitions];
+			this.counts = new double[numTransitions][totalNumSubjects];
+			subjectIsPresent = new LinkedHashMap<String, boolean[]>((int) Math.ceil(totalNumSubjects / 0.75));
+			
+//			Initialization of counts
+			for(int t = 0; t < numTransitions;t++) {
+				Arrays.fill(this.counts[t], 1);
+			}
+
+			// allocate the time series, stored once, and expose each
+			// transition as a window over its time slices
+			int[] ranges = columnRanges(attributes, numTimeSlices * numAttributes);
+			ColumnStore timeSeries = storageFile != null ? mapTimeSeries(ranges, totalNumSubjects)
+					: new ColumnStore(ranges, totalNumSubjects);
+			usefulObservations = new ColumnStore[numTransitions];
+			for (int t = 0; t < numTransitions; t++)
+				usefulObservations[t] = timeSeries.window(t * numAttributes, (markovLag + 1) * numAttributes);
+
+			// second pass: store the coded observations
+			reader = new CSVReader(new FileReader(usefulObservationsFileName));
+			reader.readNext();
+			int subjectIndex = 0;
+
+			// auxiliary variable
+			String[][] observations = new String[markovLag + 1][numAttributes];
+
+			while ((dataLine = reader.readNext()) != null) {
+
 				// record subject id
 				String subject = dataLine[0];
 				subjectIsPresent.put(subject, new boolean[numTransitions]);
+
+				// store the subject's time series, missing values as -1
+				for (int j = 0; j < numTimeSlices * numAttributes; j++) {
+					String value = dataLine[1 + j];
+					if (!(value.length() == 0 || value.equals("?")))
+						timeSeries.set(subjectIndex, j, attributes.get(j % numAttributes).getIndex(value));
+					else
+						timeSeries.set(subjectIndex, j, -1);
+				}
+				subjectIndex++;
 				
 				for (int t = 0; t < numTransitions; t++) {
 
@@ -435,44 +642,17 @@ public class Observations {
 						}
 					}
 
-					if (observationsOk) {
-
-						// observations are sane, store them
-						subjectIsPresent.get(subject)[t] = true;
-						String[] transition = Arrays.copyOfRange(dataLine, 1 + t * numAttributes, 1
-								+ (t + markovLag + 1) * numAttributes);
-						for (int j = 0; j < (markovLag + 1) * numAttributes; j++) {
-							String value = transition[j];
-							int attributeId = j % numAttributes;
-							Attribute attribute = attributes.get(attributeId);
-							attribute.add(value);
-							usefulObservations[t][numSubjects[t]][j] = attribute.getIndex(value);
-						}
-						numSubjects[t]++;
-
-					} else {
-						// if this observations has missing values, fill the missing values with the values -1
-						subjectIsPresent.get(subject)[t] = true;
-						String[] transition = Arrays.copyOfRange(dataLine, 1 + t * numAttributes, 1
-								+ (t + markovLag + 1) * numAttributes);
-						for (int j = 0; j < (markovLag + 1) * numAttributes; j++) {
-							String value = transition[j];
-							int attributeId = j % numAttributes;
-							if(!(value.length() == 0 || value.equals("?"))) {
-								Attribute attribute = attributes.get(attributeId);
-								attribute.add(value);
-								usefulObservations[t][numSubjects[t]][j] = attribute.getIndex(value);
-							}else{
-								usefulObservations[t][numSubjects[t]][j] = -1;
-							}
-						}
+					// observations are already stored in the time series
+					subjectIsPresent.get(subject)[t] = true;
+					if (!observationsOk) {
 //TODO: Verify if we need numMissing in our code
 						numMissing[t]++;
-						numSubjects[t]++;
 					}
+					numSubjects[t]++;
 
 				}
 			}
+			reader.close();
 
 		} catch (IOException e) {
 			System.err.println("File " + usefulObservationsFileName + " could not be opened.");
@@ -570,6 +750,21 @@ public class Observations {
 
 	}
 
+	/**
+	 * Allocates the time series of numRows rows in the storage file, exiting
+	 * if it cannot be mapped.
+	 */
+	private ColumnStore mapTimeSeries(int[] ranges, int numRows) {
+		try {
+			return ColumnStore.map(storageFile, ranges, numRows);
+		} catch (IOException e) {
+			System.err.println("Could not map observations to " + storageFile + ".");
+			e.printStackTrace();
+			System.exit(1);
+			return null;
+		}
+	}
+
 	/**
 	 * Gets the name of the attributes from an input header line and the number
 	 * of attributes.
@@ -631,11 +826,11 @@ public class Observations {
 		boolean add;
 		Random random = new Random();
 		int value;
-		int[][][] new_obs = new int[this.numTransitions()][numSubjects][attributes.size()*(markovLag + 1)];
+		int[][][] new_obs = new int[this.numTransitions()][numSubjects][];
 		
 		for(int t = 0; t < this.numTransitions(); t++) {
 			for(int s = 0; s < numSubjects; s++) {
-				System.arraycopy( usefulObservations[t][s], 0, new_obs[t][s], 0, usefulObservations[t][s].length );
+				new_obs[t][s] = usefulObservations[t].getRow(s);
 			}
 		}
 		
@@ -695,13 +890,13 @@ public class Observations {
 			for(int t = 0; t < numTransitions; t++) {
 				if(t == 0) {
 					for(int n = 0;  n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							subjectCombinations *= Attributes.get(n%numAttributes).size();
 						}
 					}
 				}else {
 					for(int n = numAttributes;  n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							subjectCombinations *= Attributes.get(n%numAttributes).size();
 						}
 					}
@@ -711,7 +906,7 @@ public class Observations {
 			
 			if(subjectCombinations == 1) {
 				for(int t = 0; t < numTransitions; t++) {
-					System.arraycopy(this.usefulObservations[t][subject], 0, newObservations[t][subject], 0, numAttributes * (markovLag + 1));
+					newObservations[t][subject] = usefulObservations[t].getRow(subject);
 				}
 			}else {
 				observationAux = new int[numTransitions][subjectCombinations][numAttributes * (markovLag + 1)];
@@ -720,7 +915,7 @@ public class Observations {
 				for(int t = 0; t < numTransitions; t++) {
 					if(t == 0) {
 						for(int n = 0; n < numAttributes * (markovLag + 1); n++) {
-							if(this.usefulObservations[t][subject][n] == -1) {
+							if(getValue(t, subject, n) == -1) {
 								attributeValues = new ArrayList<Integer>();
 								for(int i = 0 ; i < attributes.get(n%numAttributes).size(); i++) {
 									attributeValues.add(i);
@@ -730,7 +925,7 @@ public class Observations {
 						}
 					}else {
 						for(int n = numAttributes; n < numAttributes * (markovLag + 1); n++) {
-							if(this.usefulObservations[t][subject][n] == -1) {
+							if(getValue(t, subject, n) == -1) {
 								attributeValues = new ArrayList<Integer>();
 								for(int i = 0 ; i < attributes.get(n%numAttributes).size(); i++) {
 									attributeValues.add(i);
@@ -750,14 +945,14 @@ public class Observations {
 					for(int t = 0; t < numTransitions; t++) {
 						if(t == 0) {
 							for(int n = 0; n < numAttributes * (markovLag + 1); n++) {
-								if(this.usefulObservations[t][subject][n] == -1) {
+								if(getValue(t, subject, n) == -1) {
 									observationAux[t][i][n] = combinationList.get(i).get(nodeAux);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
 										observationAux[n/numAttributes + t][i][n%numAttributes] = observationAux[t][i][n];
 									}
 									nodeAux++;
 								}else{
-									observationAux[t][i][n] = this.usefulObservations[t][subject][n];
+									observationAux[t][i][n] = getValue(t, subject, n);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
 										observationAux[n/numAttributes + t][i][n%numAttributes] = observationAux[t][i][n];
 									}
@@ -765,14 +960,14 @@ public class Observations {
 							}
 						}else {
 							for(int n = numAttributes; n < numAttributes * (markovLag + 1); n++) {
-								if(this.usefulObservations[t][subject][n] == -1) {
+								if(getValue(t, subject, n) == -1) {
 									observationAux[t][i][n] = combinationList.get(i).get(nodeAux);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
 										observationAux[n/numAttributes + t][i][n%numAttributes] = observationAux[t][i][n];
 									}
 									nodeAux++;
 								}else{
-									observationAux[t][i][n] = this.usefulObservations[t][subject][n];
+									observationAux[t][i][n] = getValue(t, subject, n);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
 										observationAux[n/numAttributes + t][i][n%numAttributes] = observationAux[t][i][n];
 									}
@@ -871,13 +1066,13 @@ public class Observations {
 			for(int t = 0; t < numTransitions; t++) {
 				if(t == 0) {
 					for(int n = 0;  n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							subjectCombinations *= Attributes.get(n%numAttributes).size();
 						}
 					}
 				}else {
 					for(int n = numAttributes;  n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							subjectCombinations *= Attributes.get(n%numAttributes).size();
 						}
 					}
@@ -895,7 +1090,7 @@ public class Observations {
 			for(int t = 0; t < numTransitions; t++) {
 				if(t == 0) {
 					for(int n = 0; n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							attributeValues = new ArrayList<Integer>();
 							for(int i = 0 ; i < attributes.get(n%numAttributes).size(); i++) {
 								attributeValues.add(i);
@@ -905,7 +1100,7 @@ public class Observations {
 					}
 				}else {
 					for(int n = numAttributes; n < numAttributes * (markovLag + 1); n++) {
-						if(this.usefulObservations[t][subject][n] == -1) {
+						if(getValue(t, subject, n) == -1) {
 							attributeValues = new ArrayList<Integer>();
 							for(int i = 0 ; i < attributes.get(n%numAttributes).size(); i++) {
 								attributeValues.add(i);
@@ -918,7 +1113,7 @@ public class Observations {
 			}
 			if(missingCombinations.size() == 0) {
 				for(int t = 0; t < numTransitions; t++) {
-					System.arraycopy(this.usefulObservations[t][subject], 0, newObservations[t][subjectAux], 0, this.usefulObservations[t][subject].length);
+					newObservations[t][subjectAux] = usefulObservations[t].getRow(subject);
 					newCounts[t][subjectAux] = 1;
 				}
 				subjectAux++;
@@ -934,31 +1129,31 @@ public class Observations {
 					for(int t = 0; t < numTransitions; t++) {
 						if(t == 0) {
 							for(int n = 0; n < numAttributes * (markovLag + 1); n++) {
-								if(this.usefulObservations[t][subject][n] == -1) {
+								if(getValue(t, subject, n) == -1) {
 									newObservations[t][subjectAux][n] = combinationsList.get(i).get(nodeAux);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
 										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = newObservations[t][subjectAux][n];
 									}										
 									nodeAux++;
 								}else {
-									newObservations[t][subjectAux][n] = this.usefulObservations[t][subject][n];
+									newObservations[t][subjectAux][n] = getValue(t, subject, n);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
-										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = this.usefulObservations[t][subject][n];
+										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = getValue(t, subject, n);
 									}
 								}
 							}
 							
 						}else {
 							for(int n = numAttributes; n < numAttributes * (markovLag + 1); n++) {
-								if(this.usefulObservations[t][subject][n] == -1) {
+								if(getValue(t, subject, n) == -1) {
 									newObservations[t][subjectAux][n] = combinationsList.get(i).get(nodeAux);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions)
 										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = combinationsList.get(i).get(nodeAux);
 									nodeAux++;
 								}else {
-									newObservations[t][subjectAux][n] = this.usefulObservations[t][subject][n];
+									newObservations[t][subjectAux][n] = getValue(t, subject, n);
 									if(n>=numAttributes & n/numAttributes + t < numTransitions) {
-										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = this.usefulObservations[t][subject][n];
+										newObservations[n/numAttributes + t][subjectAux][n%numAttributes] = getValue(t, subject, n);
 									}
 								}
 							}
@@ -1126,12 +1321,191 @@ public class Observations {
 		int numSubjects = this.numSubjects[0];
 		List<int[]> initialObservations = new ArrayList<int[]>(numSubjects);
 		for (int s = 0; s < numSubjects; s++)
-			initialObservations.add(Arrays.copyOfRange(usefulObservations[0][s], 0, markovLag * numAttributes()));
+			initialObservations.add(Arrays.copyOf(usefulObservations[0].getRow(s), markovLag * numAttributes()));
 		return initialObservations;
 	}
 
+	/**
+	 * Builds an AD-tree for each transition, which will afterwards be used to
+	 * answer all counting queries, with default settings. The trees use at
+	 * most a quarter of the maximum heap.
+	 * 
+	 * @see #buildADTree(int, long)
+	 */
+	public Observations buildADTree() {
+		return buildADTree(Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * Builds an AD-tree for each transition, which will afterwards be used to
+	 * answer all counting queries, storing at most maxBytes of observation
+	 * indices.
+	 * 
+	 * @see #buildADTree(int, long)
+	 */
+	public Observations buildADTree(long maxBytes) {
+		return buildADTree(16, maxBytes / Integer.BYTES);
+	}
+
+	/**
+	 * Builds an AD-tree for each transition, which will afterwards be used to
+	 * answer all counting queries. The trees are expanded on demand.
+	 * 
+	 * @param leafSize
+	 *            number of observations below which a node is scanned instead
+	 *            of expanded
+	 * @param maxCachedRows
+	 *            maximum number of observation indices stored by all the trees,
+	 *            after which queries fall back to scanning
+	 */
+	public Observations buildADTree(int leafSize, long maxCachedRows) {
+		AtomicLong budget = new AtomicLong(maxCachedRows);
+		int T = numTransitions();
+		adTrees = new ADTree[T];
+		for (int t = 0; t < T; t++)
+			adTrees[t] = new ADTree(attributes, usefulObservations[t], counts[t], numObservations(t, true), leafSize,
+					budget);
+		return this;
+	}
+
+	/**
+	 * Builds a bitmap index for each transition, with one bitset per attribute
+	 * and value, which will afterwards be used to answer counting queries not
+	 * handled by an AD-tree. Best suited to attributes with few values.
+	 */
+	public Observations buildBitmapIndex() {
+		int T = numTransitions();
+		bitmapIndices = new BitmapIndex[T];
+		for (int t = 0; t < T; t++)
+			bitmapIndices[t] = new BitmapIndex(attributes, usefulObservations[t], counts[t], numObservations(t, true));
+		return this;
+	}
+
+	/**
+	 * Caches the contingency tables of the families counted afterwards, with a
+	 * default budget of 64 MB.
+	 * 
+	 * @see #cacheFamilyCounts(long)
+	 */
+	public Observations cacheFamilyCounts() {
+		return cacheFamilyCounts(1L << 26);
+	}
+
+	/**
+	 * Caches the contingency tables of the families counted afterwards, so
+	 * that families counted again, such as those of the final network, are
+	 * not recounted. Families without a present parent are summed from those
+	 * with one if the observations have no missing values and integer
+	 * weights. Least recently used tables are evicted when the budget is
+	 * exceeded.
+	 * 
+	 * @param maxBytes
+	 *            memory budget of the cache, in bytes
+	 */
+	public Observations cacheFamilyCounts(long maxBytes) {
+		// missing values are not known unless read from a file
+		boolean summable = numMissing != null && numMissings(-1) == 0;
+		for (double[] transitionCounts : counts)
+			for (double count : transitionCounts)
+				summable &= count == Math.rint(count);
+		familyCache = new FamilyCountCache(maxBytes, summable);
+		return this;
+	}
+
+	/**
+	 * Number of families found in the cache, or 0 if it is not enabled.
+	 */
+	public long getFamilyCacheHits() {
+		return familyCache != null ? familyCache.getHits() : 0;
+	}
+
+	/**
+	 * Number of families not found in the cache, or 0 if it is not enabled.
+	 */
+	public long getFamilyCacheMisses() {
+		return familyCache != null ? familyCache.getMisses() : 0;
+	}
+
+	/**
+	 * Hash of everything that scores depend on: the attributes and their
+	 * values, the Markov lag, and the observations of each transition with
+	 * their weights. Observations with the same fingerprint have the same
+	 * scores, barring collisions.
+	 */
+	public long fingerprint() {
+		long hash = mix(0, markovLag);
+		for (Attribute attribute : attributes) {
+			hash = mix(hash, attribute.getName() != null ? attribute.getName().hashCode() : 0);
+			hash = mix(hash, attribute.size());
+			for (int v = 0; v < attribute.size(); v++)
+				hash = mix(hash, attribute.get(v).hashCode());
+		}
+
+		int T = numTransitions();
+		int numColumns = (markovLag + 1) * numAttributes();
+		hash = mix(hash, T);
+		for (int t = 0; t < T; t++) {
+			int N = numObservations(t, true);
+			hash = mix(hash, numSubjects[t]);
+			hash = mix(hash, N);
+			for (int s = 0; s < N; s++) {
+				hash = mix(hash, Double.doubleToLongBits(counts[t][s]));
+				for (int a = 0; a < numColumns; a++)
+					hash = mix(hash, usefulObservations[t].get(s, a));
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Combines a hash with a value, scrambling the bits as SplitMix64.
+	 */
+	private static long mix(long hash, long value) {
+		long z = (hash ^ value) + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns a copy of the observations as a three-dimensional matrix, indexed
+	 * by transition, subject and column. Prefer {@link #getValue(int, int, int)}
+	 * and {@link #getObservation(int, int)}, which do not unpack all the data.
+	 */
 	public int[][][] getObservationsMatrix() {
-		return usefulObservations;
+		int T = numTransitions();
+		int[][][] observationsMatrix = new int[T][][];
+		for (int t = 0; t < T; t++) {
+			int N = usefulObservations[t].numRows();
+			observationsMatrix[t] = new int[N][];
+			for (int s = 0; s < N; s++)
+				observationsMatrix[t][s] = usefulObservations[t].getRow(s);
+		}
+		return observationsMatrix;
+	}
+
+	/**
+	 * Gets the coded value of one column of an observation, or -1 if it is
+	 * missing.
+	 * 
+	 * @param transition
+	 *            transition {t - markovLag + 1, ... ,t}->t+1
+	 * @param subject
+	 *            index of the observation in the transition
+	 * @param column
+	 *            attribute and time slice, within the range [0, (1 +
+	 *            markovLag)*n[
+	 */
+	public int getValue(int transition, int subject, int column) {
+		return usefulObservations[transition].get(subject, column);
+	}
+
+	/**
+	 * Returns a copy of the coded values of an observation, as used by
+	 * {@link LocalConfiguration#matches(int[])}.
+	 */
+	public int[] getObservation(int transition, int subject) {
+		return usefulObservations[transition].getRow(subject);
 	}
 
 	public String[][][] getPassiveObservationsMatrix() {
@@ -1145,6 +1519,10 @@ public class Observations {
 	 */
 	public double count(LocalConfiguration c, int transition) {
 
+		// stationary process, pooled unless indexed per transition
+		if (transition < 0 && pooledObservations != null && adTrees == null && bitmapIndices == null)
+			return pooledObservations.count(c, pooledCounts, pooledObservations.numRows());
+
 		// stationary process
 		if (transition < 0) {
 			double allMatches = 0;
@@ -1155,12 +1533,107 @@ public class Observations {
 		}
 
 		// time-varying process
-		double matches = 0;
-		int N = numObservations(transition, true);
-		for (int i = 0; i < N; i++)
-			if (c.matches(usefulObservations[transition][i]))
-				matches+= this.counts[transition][i];
-		return matches;
+		if (adTrees != null)
+			return adTrees[transition].count(c);
+		if (bitmapIndices != null)
+			return bitmapIndices[transition].count(c);
+
+		return usefulObservations[transition].count(c, counts[transition], numObservations(transition, true));
+	}
+
+	/**
+	 * Given a family (parents and child) described by a network configuration,
+	 * counts N_ij and N_ijk for all parents' configurations and child values
+	 * with a single pass over the observations of some transition. If
+	 * transition is negative, counts over all transitions.
+	 * <p>
+	 * The returned table must not be modified, as it may be cached.
+	 * 
+	 * @see #cacheFamilyCounts(long)
+	 */
+	public ContingencyTable countFamily(LocalConfiguration c, int transition) {
+		return countFamily(c.getParentIndices(), c.getChildIndex(), transition);
+	}
+
+	/**
+	 * Counts a family given its nodes, as scored by
+	 * {@link ScoringFunction#evaluate(Observations, int, int[], int, int)}.
+	 * 
+	 * @param parentNodesPast
+	 *            parent nodes in t, already shifted
+	 * @param parentNodePresent
+	 *            parent node in t+1, negative if there is none
+	 */
+	ContingencyTable countFamily(int[] parentNodesPast, int parentNodePresent, int childNode, int transition) {
+
+		int presentSlice = numAttributes() * getMarkovLag();
+
+		// past parents are already shifted, present parent last
+		int[] parentColumns = parentNodesPast;
+		if (parentNodePresent >= 0) {
+			parentColumns = Arrays.copyOf(parentNodesPast, parentNodesPast.length + 1);
+			parentColumns[parentNodesPast.length] = presentSlice + parentNodePresent;
+		}
+
+		ContingencyTable table = countFamily(parentColumns, presentSlice + childNode, transition);
+		// the same family without the present parent is summed from this one
+		if (familyCache != null && parentNodePresent >= 0)
+			familyCache.putMarginal(transition, table);
+		return table;
+	}
+
+	/**
+	 * Counts a family given the columns of its parents, in the order of
+	 * {@link LocalConfiguration#nextParents()}, and of its child, without
+	 * building its configuration.
+	 * 
+	 * @param parentColumns
+	 *            kept by the returned table, so they must not be modified
+	 * @see #countFamily(LocalConfiguration, int)
+	 */
+	ContingencyTable countFamily(int[] parentColumns, int childColumn, int transition) {
+
+		if (familyCache == null)
+			return scanFamily(parentColumns, childColumn, transition);
+
+		ContingencyTable table = familyCache.get(transition, parentColumns, childColumn);
+		if (table == null) {
+			table = scanFamily(parentColumns, childColumn, transition);
+			familyCache.put(transition, parentColumns, childColumn, table);
+		}
+		return table;
+	}
+
+	private ContingencyTable scanFamily(int[] parentColumns, int childColumn, int transition) {
+
+		ContingencyTable table = new ContingencyTable(attributes, parentColumns, childColumn);
+
+		// stationary process, pooled unless indexed per transition
+		if (transition < 0 && pooledObservations != null && adTrees == null && bitmapIndices == null) {
+			pooledObservations.count(table, pooledCounts, pooledObservations.numRows());
+			return table;
+		}
+
+		// stationary process
+		if (transition < 0) {
+			int T = numTransitions();
+			for (int t = 0; t < T; t++)
+				table.add(scanFamily(parentColumns, childColumn, t));
+			return table;
+		}
+
+		// time-varying process
+		if (adTrees != null) {
+			adTrees[transition].count(table, table.getColumns());
+			return table;
+		}
+		if (bitmapIndices != null) {
+			bitmapIndices[transition].count(table);
+			return table;
+		}
+
+		usefulObservations[transition].count(table, counts[transition], numObservations(transition, true));
+		return table;
 	}
 
 	public void writeToFile() {
@@ -1241,10 +1714,10 @@ public class Observations {
 				// add observations from all except the last time slice
 				for (int t = 0; t < numTransitions; t++) {
 					for (int i = 0; i < numAttributes; i++) {
-						if(usefulObservations[t][s][i]==-1) {
+						if(getValue(t, s, i)==-1) {
 							subjectEntries.add("?");
 						}else {
-							subjectEntries.add(attributes.get(i).get(usefulObservations[t][s][i]));
+							subjectEntries.add(attributes.get(i).get(getValue(t, s, i)));
 						}	
 					}
 
@@ -1260,11 +1733,11 @@ public class Observations {
 
 				// add observations from the last time slice
 				for (int i = numAttributes; i < 2 * numAttributes; i++) {
-					if(usefulObservations[numTransitions - 1][s][i]==-1) {
+					if(getValue(numTransitions - 1, s, i)==-1) {
 						subjectEntries.add("?");
 					}else {
 						subjectEntries.add(attributes.get(i % numAttributes).get(
-								usefulObservations[numTransitions - 1][s][i]));
+								getValue(numTransitions - 1, s, i)));
 					}	
 				}
 
@@ -1313,9 +1786,9 @@ public class Observations {
 		for (int j = 0; j < numAttributes; j++) {
 			sb.append("A" + j + "\t");
 			for (int t = 0; t < numTransitions; t++) {
-				sb.append(usefulObservations[t][0][j] + "\t");
+				sb.append(getValue(t, 0, j) + "\t");
 			}
-			sb.append(usefulObservations[numTransitions - 1][0][j + numAttributes] + ls);
+			sb.append(getValue(numTransitions - 1, 0, j + numAttributes) + ls);
 
 		}
 		sb.append(ls);
@@ -1330,11 +1803,11 @@ public class Observations {
 
 		for (int t = 0; t < numTransitions; t++) {
 			for (int j = 0; j < numAttributes; j++)
-				sb.append(usefulObservations[t][0][j] + "\t");
+				sb.append(getValue(t, 0, j) + "\t");
 			sb.append(ls);
 		}
 		for (int j = 0; j < numAttributes; j++)
-			sb.append(usefulObservations[numTransitions - 1][0][j + numAttributes] + "\t");
+			sb.append(getValue(numTransitions - 1, 0, j + numAttributes) + "\t");
 		sb.append(ls);
 
 		return sb.toString();
@@ -20,11 +20,20 @@ public class OptimumBranching {
 
 	public List<Edge> branching;
 
-	public static int root;
+	/**
+	 * Root of the branching, where {@link #BFS()} starts.
+	 */
+	private int root;
 
-	public static int N;
+	/**
+	 * Number of nodes.
+	 */
+	private int N;
 
-	public static List<LinkedList<Integer>> Adj;
+	/**
+	 * Adj.get(i) are the children of node i in the branching.
+	 */
+	private List<LinkedList<Integer>> Adj;
 
 	/*
 	 * public static List<Edge> evaluate(double[][] scoresMatrix) { return
@@ -258,35 +267,37 @@ public class OptimumBranching {
 		return anc;
 	}
 
+	/**
+	 * Subsets of 1 to k ancestors, in the increasing order of their bitmasks,
+	 * followed by the empty set. Masks of more than k ancestors are skipped
+	 * in blocks rather than enumerated, so that the cost does not grow as
+	 * 2^|anc|.
+	 */
 	public static ArrayList<ArrayList<Integer>> Subsets(ArrayList<Integer> anc, int k) {
 
 		ArrayList<ArrayList<Integer>> total = new ArrayList<ArrayList<Integer>>();
 
 		int n = anc.size();
-
-		// Run a loop for printing all 2^n
-		// subsets one by one
-		for (int i = 0; i < (1 << n); i++) {
-
-			if (0 < Integer.bitCount(i) && Integer.bitCount(i) <= k) {
+		if (n > 62)
+			throw new IllegalArgumentException("Subsets of " + n + " ancestors do not fit in a bitmask");
+
+		if (k > 0) {
+			long end = 1L << n;
+			long i = 1;
+			while (i < end) {
+				if (Long.bitCount(i) > k) {
+					// all masks up to the next multiple of the lowest bit
+					// contain i, so they have more than k ancestors too
+					i += Long.lowestOneBit(i);
+					continue;
+				}
 
 				ArrayList<Integer> part = new ArrayList<Integer>();
-
-				// Print current subset
-				for (int j = 0; j < n; j++) {
-
-					// (1<<j) is a number with jth bit 1
-					// so when we 'and' them with the
-					// subset number we get which numbers
-					// are present in the subset and which
-					// are not
-					if ((i & (1 << j)) > 0)
+				for (int j = 0; j < n; j++)
+					if ((i & (1L << j)) != 0)
 						part.add(anc.get(j));
-
-				}
-
 				total.add(part);
-
+				i++;
 			}
 		}
 
@@ -403,13 +414,13 @@ public class OptimumBranching {
 
 		while (queue.size() != 0) {
 			// Dequeue a vertex from queue and print it
-			root = queue.poll();
-			order.add(root);
+			int node = queue.poll();
+			order.add(node);
 
 			// Get all adjacent vertices of the dequeued vertex s
 			// If a adjacent has not been visited, then mark it
 			// visited and enqueue it
-			Iterator<Integer> i = Adj.get(root).listIterator();
+			Iterator<Integer> i = Adj.get(node).listIterator();
 			while (i.hasNext()) {
 				int m = i.next();
 				if (!visited[m]) {
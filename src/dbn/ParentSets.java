@@ -0,0 +1,334 @@
+package dbn;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * All sets of at most maxParents nodes among numNodes candidate parents,
+ * identified by their rank instead of being materialized as lists. Sets are
+ * ranked by size, from 1 to maxParents, sets of the same size in
+ * lexicographical order of their nodes, and the empty set last. Ranks follow
+ * the combinatorial number system, so that sets are encoded and decoded
+ * without enumerating them.
+ * <p>
+ * A set is decoded into an array of nodes in increasing order. Sets of at
+ * most 64 candidate nodes may also be encoded as bitmasks.
+ * <p>
+ * Sets are enumerated lazily, in rank order, by iterators and spliterators
+ * over ranges of ranks, which split in halves for parallel traversal.
+ */
+public class ParentSets implements Iterable<int[]> {
+
+	private final int numNodes;
+
+	private final int maxParents;
+
+	/**
+	 * binomial[m][k] is the number of sets of k among m nodes.
+	 */
+	private final long[][] binomial;
+
+	/**
+	 * offset[k] is the rank of the first set of k nodes, offset[maxParents+1]
+	 * being the rank of the empty set.
+	 */
+	private final long[] offset;
+
+	/**
+	 * @param numNodes
+	 *            number of candidate parents, numbered from 0
+	 * @param maxParents
+	 *            maximum number of parents in a set
+	 */
+	public ParentSets(int numNodes, int maxParents) {
+		this.numNodes = numNodes;
+		this.maxParents = maxParents;
+
+		binomial = binomials(numNodes, maxParents);
+		if (binomial == null)
+			throw new IllegalArgumentException("Number of sets of at most " + maxParents + " parents among "
+					+ numNodes + " nodes does not fit in a long");
+
+		offset = new long[maxParents + 2];
+		offset[1] = 0;
+		for (int k = 1; k <= maxParents; k++)
+			offset[k + 1] = offset[k] + binomial[numNodes][k];
+	}
+
+	/**
+	 * Computes the binomial coefficients of at most numNodes and maxParents.
+	 *
+	 * @return null if the number of sets does not fit in a long
+	 */
+	private static long[][] binomials(int numNodes, int maxParents) {
+		long[][] binomial = new long[numNodes + 1][maxParents + 1];
+		try {
+			for (int m = 0; m <= numNodes; m++) {
+				binomial[m][0] = 1;
+				for (int k = 1; k <= maxParents && k <= m; k++)
+					binomial[m][k] = Math.addExact(binomial[m - 1][k - 1], k < m ? binomial[m - 1][k] : 0);
+			}
+			long size = 1;
+			for (int k = 1; k <= maxParents; k++)
+				size = Math.addExact(size, binomial[numNodes][k]);
+		} catch (ArithmeticException e) {
+			return null;
+		}
+		return binomial;
+	}
+
+	/**
+	 * Number of sets of at most maxParents among numNodes nodes, including the
+	 * empty set, without allocating them.
+	 *
+	 * @return Long.MAX_VALUE if the number of sets does not fit in a long
+	 */
+	public static long estimateSize(int numNodes, int maxParents) {
+		long size = 1;
+		// C(numNodes, k) = C(numNodes, k-1) * (numNodes-k+1) / k
+		long binomial = 1;
+		for (int k = 1; k <= maxParents && k <= numNodes; k++) {
+			long numerator = binomial;
+			long factor = numNodes - k + 1;
+			// divide first by the common factor, so that the product is exact
+			long g = gcd(numerator, k);
+			numerator /= g;
+			factor /= k / g;
+			if (numerator > Long.MAX_VALUE / factor)
+				return Long.MAX_VALUE;
+			binomial = numerator * factor;
+			if (size > Long.MAX_VALUE - binomial)
+				return Long.MAX_VALUE;
+			size += binomial;
+		}
+		return size;
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long r = a % b;
+			a = b;
+			b = r;
+		}
+		return a;
+	}
+
+	/**
+	 * Number of sets, including the empty set.
+	 */
+	public long size() {
+		return offset[maxParents + 1] + 1;
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public int getMaxParents() {
+		return maxParents;
+	}
+
+	/**
+	 * Rank of the empty set, which is the last one.
+	 */
+	public long emptySetRank() {
+		return offset[maxParents + 1];
+	}
+
+	/**
+	 * Rank of a set of nodes, given in increasing order.
+	 */
+	public long rank(int[] nodes) {
+		int k = nodes.length;
+		if (k == 0)
+			return emptySetRank();
+		// rank among the sets of k nodes, counting the sets that follow it
+		long following = 0;
+		for (int i = 0; i < k; i++)
+			following += binomial[numNodes - 1 - nodes[i]][k - i];
+		return offset[k] + binomial[numNodes][k] - 1 - following;
+	}
+
+	/**
+	 * Nodes of the set of some rank, in increasing order.
+	 */
+	public int[] unrank(long rank) {
+		int k = 1;
+		while (k <= maxParents && rank >= offset[k + 1])
+			k++;
+		int[] nodes = new int[k <= maxParents ? k : 0];
+
+		long r = rank - offset[k];
+		int node = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			// skip the sets whose i-th node is smaller
+			while (r >= binomial[numNodes - 1 - node][nodes.length - 1 - i]) {
+				r -= binomial[numNodes - 1 - node][nodes.length - 1 - i];
+				node++;
+			}
+			nodes[i] = node++;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Nodes of the set of some rank, as a list.
+	 */
+	public List<Integer> get(long rank) {
+		return toList(unrank(rank));
+	}
+
+	/**
+	 * Nodes of the set following another one in rank order, or null if it is
+	 * the empty set, which is the last one.
+	 */
+	int[] next(int[] nodes) {
+		int k = nodes.length;
+		if (k == 0)
+			return null;
+
+		int[] next = nodes.clone();
+		// rightmost node that may be incremented, the following ones being
+		// the highest possible
+		int i = k - 1;
+		while (i >= 0 && next[i] == numNodes - k + i)
+			i--;
+		if (i >= 0) {
+			next[i]++;
+			for (int j = i + 1; j < k; j++)
+				next[j] = next[j - 1] + 1;
+			return next;
+		}
+
+		// first set of k+1 nodes, or the empty set
+		if (k == maxParents || k == numNodes)
+			return new int[0];
+		next = new int[k + 1];
+		for (int j = 0; j <= k; j++)
+			next[j] = j;
+		return next;
+	}
+
+	/**
+	 * Enumerates lazily the sets of ranks in [from, to[, in rank order. Each
+	 * set is a new array.
+	 */
+	public Spliterator<int[]> spliterator(long from, long to) {
+		return new RankSpliterator(from, to);
+	}
+
+	@Override
+	public Spliterator<int[]> spliterator() {
+		return spliterator(0, size());
+	}
+
+	public Iterator<int[]> iterator(long from, long to) {
+		return Spliterators.iterator(spliterator(from, to));
+	}
+
+	@Override
+	public Iterator<int[]> iterator() {
+		return iterator(0, size());
+	}
+
+	private class RankSpliterator implements Spliterator<int[]> {
+
+		/**
+		 * Rank of the next set.
+		 */
+		private long rank;
+
+		private final long end;
+
+		/**
+		 * Last set returned, null if none was since the last split.
+		 */
+		private int[] current;
+
+		private RankSpliterator(long from, long to) {
+			this.rank = from;
+			this.end = to;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super int[]> action) {
+			if (rank >= end)
+				return false;
+			current = current == null ? unrank(rank) : next(current);
+			rank++;
+			action.accept(current);
+			return true;
+		}
+
+		@Override
+		public Spliterator<int[]> trySplit() {
+			if (end - rank < 2)
+				return null;
+			long middle = (rank + end) >>> 1;
+			Spliterator<int[]> prefix = new RankSpliterator(rank, middle);
+			rank = middle;
+			current = null;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - rank;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * Nodes of a list, which is empty if null.
+	 */
+	public static int[] toArray(List<Integer> nodes) {
+		if (nodes == null)
+			return new int[0];
+		int[] array = new int[nodes.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = nodes.get(i);
+		return array;
+	}
+
+	public static List<Integer> toList(int[] nodes) {
+		List<Integer> list = new ArrayList<Integer>(nodes.length);
+		for (int node : nodes)
+			list.add(node);
+		return list;
+	}
+
+	/**
+	 * Encodes a set of nodes lower than 64 as a bitmask, with bit i set if
+	 * node i is in the set.
+	 */
+	public static long toMask(int[] nodes) {
+		long mask = 0;
+		for (int node : nodes) {
+			if (node >= 64)
+				throw new IllegalArgumentException("Node " + node + " does not fit in a bitmask");
+			mask |= 1L << node;
+		}
+		return mask;
+	}
+
+	/**
+	 * Decodes a bitmask into its nodes, in increasing order.
+	 */
+	public static int[] fromMask(long mask) {
+		int[] nodes = new int[Long.bitCount(mask)];
+		for (int i = 0; mask != 0; i++) {
+			nodes[i] = Long.numberOfTrailingZeros(mask);
+			mask &= mask - 1;
+		}
+		return nodes;
+	}
+
+}
@@ -2,6 +2,7 @@ package dbn;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class RandomScoringFunction implements ScoringFunction {
 
@@ -21,6 +22,12 @@ public class RandomScoringFunction implements ScoringFunction {
 		return -100 + (0 + 100) * r.nextDouble();
 	}
 
+	@Override
+	public double evaluate(Observations observations, int transition, int[] parentNodesPast, int parentNodePresent,
+			int childNode) {
+		return -100 + (0 + 100) * ThreadLocalRandom.current().nextDouble();
+	}
+
 	@Override
 	public double evaluate_2(Observations observations, int transition, List<Integer> parentNodesPast,
 			List<Integer> parentNodePresent, int childNode) {
@@ -28,6 +35,12 @@ public class RandomScoringFunction implements ScoringFunction {
 		return -100 + (0 + 100) * r.nextDouble();
 	}
 
+	@Override
+	public double evaluate_2(Observations observations, int transition, int[] parentNodesPast,
+			int[] parentNodesPresent, int childNode) {
+		return -100 + (0 + 100) * ThreadLocalRandom.current().nextDouble();
+	}
+
 	@Override
 	public double evaluate(Observations observations, List<Integer> parentNodesPast, Integer parentNodePresent,
 			int childNode) {
@@ -0,0 +1,207 @@
+package dbn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Binary file of evaluated local scores, so that learning again from the same
+ * observations, for instance with another root or intra-slice structure, does
+ * not evaluate them again, and that an interrupted evaluation resumes from
+ * the children already evaluated. The file holds, for each evaluated child,
+ * its rows of the score matrices, the ranks of its optimal parent sets and
+ * its number of optimal solutions, after a header identifying the
+ * observations, the scoring functions, the Markov lag, the stationarity and
+ * the maximum number of parents they were evaluated for.
+ * <p>
+ * Only deterministic scoring functions should be cached. Arrays are indexed
+ * by scoring function, then as in {@link Scores}.
+ */
+final class ScoreCache {
+
+	private static final int MAGIC = 0x44424E53;
+
+	private static final int VERSION = 2;
+
+	private final File file;
+
+	private final long fingerprint;
+
+	private final String[] scoringFunctions;
+
+	private final int markovLag;
+
+	private final boolean stationaryProcess;
+
+	private final int maxParents;
+
+	private final int numAttributes;
+
+	private final int numTransitions;
+
+	/**
+	 * Identifies the scores evaluated from some observations, computing their
+	 * fingerprint.
+	 */
+	ScoreCache(File file, Observations observations, ScoringFunction[] sfs, int maxParents,
+			boolean stationaryProcess) {
+		this.file = file;
+		this.fingerprint = observations.fingerprint();
+		this.scoringFunctions = new String[sfs.length];
+		for (int m = 0; m < sfs.length; m++)
+			scoringFunctions[m] = sfs[m].getClass().getName();
+		this.markovLag = observations.getMarkovLag();
+		this.stationaryProcess = stationaryProcess;
+		this.maxParents = maxParents;
+		this.numAttributes = observations.numAttributes();
+		this.numTransitions = stationaryProcess ? 1 : observations.numTransitions();
+	}
+
+	private ScoreCache(File file, ScoreCache other) {
+		this.file = file;
+		this.fingerprint = other.fingerprint;
+		this.scoringFunctions = other.scoringFunctions;
+		this.markovLag = other.markovLag;
+		this.stationaryProcess = other.stationaryProcess;
+		this.maxParents = other.maxParents;
+		this.numAttributes = other.numAttributes;
+		this.numTransitions = other.numTransitions;
+	}
+
+	/**
+	 * Identifies the same scores in another file, without computing the
+	 * fingerprint again.
+	 */
+	ScoreCache forFile(File file) {
+		return new ScoreCache(file, this);
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Reads the children evaluated in the file, if it was written for the
+	 * same scores, into the given arrays, and marks them as completed. Other
+	 * children are left unchanged, so that files holding different children
+	 * may be read into the same arrays.
+	 *
+	 * @return false, leaving the arrays unchanged, if the file does not exist,
+	 *         was written for other scores or cannot be read
+	 */
+	boolean read(double[][][][] scoresMatrix, long[][][] parentNodesPast, long[][][][] parentNodes,
+			long[][][] numSolutions, boolean[] completed) {
+
+		if (!file.isFile())
+			return false;
+
+		int numSfs = scoringFunctions.length;
+		int n = numAttributes;
+		boolean[] read = new boolean[n];
+		double[][][][] scores = new double[numSfs][numTransitions][n][];
+		long[][][] past = new long[numSfs][numTransitions][n];
+		long[][][][] nodes = new long[numSfs][numTransitions][n][];
+		long[][][] solutions = new long[numSfs][numTransitions][n];
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fingerprint
+					|| in.readInt() != numSfs)
+				return false;
+			for (int m = 0; m < numSfs; m++)
+				if (!in.readUTF().equals(scoringFunctions[m]))
+					return false;
+			if (in.readInt() != markovLag || in.readBoolean() != stationaryProcess || in.readInt() != maxParents
+					|| in.readInt() != n || in.readInt() != numTransitions)
+				return false;
+
+			for (int i = 0; i < n; i++) {
+				read[i] = in.readBoolean();
+				if (!read[i])
+					continue;
+				for (int m = 0; m < numSfs; m++)
+					for (int t = 0; t < numTransitions; t++) {
+						solutions[m][t][i] = in.readLong();
+						past[m][t][i] = in.readLong();
+						scores[m][t][i] = new double[n];
+						nodes[m][t][i] = new long[n];
+						for (int j = 0; j < n; j++) {
+							scores[m][t][i][j] = in.readDouble();
+							nodes[m][t][i][j] = in.readLong();
+						}
+					}
+			}
+		} catch (IOException e) {
+			return false;
+		}
+
+		for (int i = 0; i < n; i++)
+			if (read[i]) {
+				for (int m = 0; m < numSfs; m++)
+					for (int t = 0; t < numTransitions; t++) {
+						scoresMatrix[m][t][i] = scores[m][t][i];
+						parentNodesPast[m][t][i] = past[m][t][i];
+						parentNodes[m][t][i] = nodes[m][t][i];
+						numSolutions[m][t][i] = solutions[m][t][i];
+					}
+				completed[i] = true;
+			}
+		return true;
+	}
+
+	/**
+	 * Writes the completed children to the file, replacing it at once, so that
+	 * it is never read partially written.
+	 */
+	void write(double[][][][] scoresMatrix, long[][][] parentNodesPast, long[][][][] parentNodes,
+			long[][][] numSolutions, boolean[] completed) throws IOException {
+
+		int numSfs = scoringFunctions.length;
+		int n = numAttributes;
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fingerprint);
+				out.writeInt(numSfs);
+				for (int m = 0; m < numSfs; m++)
+					out.writeUTF(scoringFunctions[m]);
+				out.writeInt(markovLag);
+				out.writeBoolean(stationaryProcess);
+				out.writeInt(maxParents);
+				out.writeInt(n);
+				out.writeInt(numTransitions);
+
+				for (int i = 0; i < n; i++) {
+					out.writeBoolean(completed[i]);
+					if (!completed[i])
+						continue;
+					for (int m = 0; m < numSfs; m++)
+						for (int t = 0; t < numTransitions; t++) {
+							out.writeLong(numSolutions[m][t][i]);
+							out.writeLong(parentNodesPast[m][t][i]);
+							for (int j = 0; j < n; j++) {
+								out.writeDouble(scoresMatrix[m][t][i][j]);
+								out.writeLong(parentNodes[m][t][i][j]);
+							}
+						}
+				}
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+}
@@ -1,17 +1,37 @@
 package dbn;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.DoubleAccumulator;
 
 import utils.Edge;
-import utils.ScoreCalculationThread;
 import utils.Utils;
 
 public class Scores {
 
-	private boolean multithread;
+	/**
+	 * Number of worker threads used for evaluating scores, 1 for evaluating
+	 * them in the calling thread.
+	 */
+	private int parallelism;
+
+	/**
+	 * Pools shared by all instances, by parallelism, created when first
+	 * needed, so that the Scores of successive steps, such as those of
+	 * structural EM, do not each leave a pool behind. Their threads stop when
+	 * idle.
+	 */
+	private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
 
 	private Observations observations;
 
@@ -22,18 +42,18 @@ public class Scores {
 	private double[][][] scoresMatrix;
 
 	/**
-	 * parentNodes.get(t).get(i) is the list of optimal parents in
-	 * {X[t],...,X[t+markovLag-1]} of Xi[t+markovLag] when there is no arc from
-	 * X[t+markovLag] to X[t+markovLag].
+	 * parentNodesPast[t][i] is the rank in parentSets of the optimal parents
+	 * in {X[t],...,X[t+markovLag-1]} of Xi[t+markovLag] when there is no arc
+	 * from X[t+markovLag] to X[t+markovLag].
 	 */
-	private List<List<List<Integer>>> parentNodesPast;
+	private long[][] parentNodesPast;
 
 	/**
-	 * parentNodes.get(t).get(i).get(j) is the list of optimal parents in
+	 * parentNodes[t][i][j] is the rank in parentSets of the optimal parents in
 	 * {X[t],...,X[t+markovLag-1]} of Xi[t+markovLag] when the arc
 	 * Xj[t+markovLag]->Xi[t+markovLag] is present.
 	 */
-	private List<List<List<List<Integer>>>> parentNodes;
+	private long[][][] parentNodes;
 
 	/**
 	 * Upper limit on the number of parents from previous time slices.
@@ -41,10 +61,10 @@ public class Scores {
 	private int maxParents;
 
 	/**
-	 * A list of all possible sets of parent nodes. Set cardinality lies within the
-	 * range [1, maxParents].
+	 * All possible sets of parent nodes, of cardinality within the range [1,
+	 * maxParents], and the empty set.
 	 */
-	private List<List<Integer>> parentSets;
+	private ParentSets parentSets;
 
 	/**
 	 * If true, evaluates only one score matrix for all transitions.
@@ -53,13 +73,51 @@ public class Scores {
 
 	private boolean evaluated = false;
 
+	/**
+	 * Scoring function of which the optimal parents were evaluated, or null.
+	 */
+	private ScoringFunction scoringFunction;
+
 	private boolean verbose;
 
-	private List<List<Integer>> ancestors;
+	/**
+	 * File to which evaluated children are saved during evaluation, or null.
+	 * 
+	 * @see #setCheckpoint(File, long, boolean)
+	 */
+	private File checkpointFile;
 
-	private List<List<Integer>> PastParents;
+	private long checkpointInterval;
 
-	private List<List<Integer>> PresentParents;
+	private boolean resume;
+
+	/**
+	 * Range of children evaluated, among numShards ranges.
+	 * 
+	 * @see #setShard(int, int)
+	 */
+	private int shard = 0;
+
+	private int numShards = 1;
+
+	/**
+	 * Number of best parent sets kept per family, only the best one being
+	 * kept if at most 1.
+	 * 
+	 * @see #setTopK(int)
+	 */
+	private int topK = 1;
+
+	/**
+	 * topParentsPast[t][i] and topParents[t][i][j] are the topK best parent
+	 * sets of the families of parentNodesPast[t][i] and parentNodes[t][i][j],
+	 * or null if they were not kept.
+	 */
+	private TopParentSets[][] topParentsPast;
+
+	private TopParentSets[][][] topParents;
+
+	private List<List<Integer>> ancestors;
 
 	public Scores(Observations observations, int maxParents) {
 		this(observations, maxParents, true, true);
@@ -69,160 +127,637 @@ public class Scores {
 		this(observations, maxParents, stationaryProcess, verbose, false);
 	}
 
+	/**
+	 * @param multithread
+	 *            if true, scores are evaluated by as many threads as there are
+	 *            available processors
+	 */
 	public Scores(Observations observations, int maxParents, boolean stationaryProcess, boolean verbose,
 			boolean multithread) {
+		this(observations, maxParents, stationaryProcess, verbose,
+				multithread ? Runtime.getRuntime().availableProcessors() : 1);
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of threads evaluating scores
+	 */
+	public Scores(Observations observations, int maxParents, boolean stationaryProcess, boolean verbose,
+			int parallelism) {
 		this.observations = observations;
 		this.maxParents = maxParents;
 		this.stationaryProcess = stationaryProcess;
 		this.verbose = verbose;
-		this.multithread = multithread;
+		this.parallelism = parallelism;
 
 		int n = this.observations.numAttributes();
 		int p = this.maxParents;
 		int markovLag = observations.getMarkovLag();
 
-		// calculate sum_i=1^k nCi
-		int size = n * markovLag;
-		for (int previous = n, i = 2; i <= p; i++) {
-			int current = previous * (n - i + 1) / i;
-			size += current;
-			previous = current;
+		parentSets = new ParentSets(n * markovLag, p);
+
+		int numTransitions = stationaryProcess ? 1 : observations.numTransitions();
+		parentNodesPast = new long[numTransitions][n];
+		parentNodes = new long[numTransitions][n][n];
+		for (int t = 0; t < numTransitions; t++) {
+			Arrays.fill(parentNodesPast[t], parentSets.emptySetRank());
+			for (int i = 0; i < n; i++)
+				Arrays.fill(parentNodes[t][i], parentSets.emptySetRank());
 		}
-		size += 1; // To count with the empty set!
 
-		// TODO: check for size overflow
+		// allocate scoresMatrix
+		scoresMatrix = new double[numTransitions][n][n];
 
-		// generate parents sets
-		parentSets = new ArrayList<List<Integer>>(size);
-		for (int i = 1; i <= p; i++) {
-			generateCombinations(n * markovLag, i);
-		}
+	}
 
-		parentSets.add(new ArrayList<Integer>());
+	/**
+	 * Finds the optimal parents of child i in the past time slices of
+	 * transition t, given the present parent j, or no present parent if j is
+	 * negative, for each of several scoring functions. Tasks are the work
+	 * items of score evaluation, each one only writing its own result, so that
+	 * they may be run in any order.
+	 * <p>
+	 * Inside a pool, large ranges of parent sets are split in halves whose
+	 * results are merged in order, so the result is the same as that of a
+	 * sequential scan, whatever the number of threads.
+	 */
+	private class BestParentsTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Number of parent sets below which a range is not split.
+		 */
+		private static final int SPLIT_THRESHOLD = 256;
+
+		private final ScoringFunction[] sfs;
+
+		private final int t;
+
+		private final int i;
+
+		private final int j;
+
+		/**
+		 * Range of ranks of parentSets evaluated by the task.
+		 */
+		private final long from, to;
+
+		/**
+		 * Best score of each scoring function.
+		 */
+		private final double[] bestScore;
+
+		/**
+		 * Rank of the first parent set with the best score, -1 if no score is
+		 * better than negative infinity.
+		 */
+		private final long[] bestIndex;
+
+		/**
+		 * Number of parent sets with the best score.
+		 */
+		private final int[] numBestScores;
+
+		/**
+		 * k best parent sets of each scoring function, or null if only the
+		 * best one is kept.
+		 */
+		private final TopParentSets[] top;
+
+		/**
+		 * Number of parent sets not counted, as their score is bounded below
+		 * the best one for every scoring function.
+		 */
+		private long numPruned;
+
+		/**
+		 * Best score of each scoring function found so far by any of the
+		 * ranges split from the task, which prune against it, or null until
+		 * seeded. The chosen parent sets and tie counts do not depend on when
+		 * a range finds its best, but the number pruned does.
+		 */
+		private DoubleAccumulator[] floor;
+
+		private BestParentsTask(ScoringFunction[] sfs, int t, int i, int j) {
+			this(sfs, t, i, j, 0, parentSets.size(), null);
+		}
 
-		int numTransitions = stationaryProcess ? 1 : observations.numTransitions();
-		parentNodesPast = new ArrayList<List<List<Integer>>>(numTransitions);
-		parentNodes = new ArrayList<List<List<List<Integer>>>>(numTransitions);
+		private BestParentsTask(ScoringFunction[] sfs, int t, int i, int j, long from, long to,
+				DoubleAccumulator[] floor) {
+			this.sfs = sfs;
+			this.t = t;
+			this.i = i;
+			this.j = j;
+			this.from = from;
+			this.to = to;
+			this.floor = floor;
+			this.bestScore = new double[sfs.length];
+			Arrays.fill(bestScore, Double.NEGATIVE_INFINITY);
+			this.bestIndex = new long[sfs.length];
+			Arrays.fill(bestIndex, -1);
+			this.numBestScores = new int[sfs.length];
+			if (topK > 1) {
+				this.top = new TopParentSets[sfs.length];
+				for (int m = 0; m < sfs.length; m++)
+					top[m] = new TopParentSets(topK);
+			} else
+				this.top = null;
+		}
 
-		for (int t = 0; t < numTransitions; t++) {
+		@Override
+		protected void compute() {
+			int transition = stationaryProcess ? -1 : t;
+			if (floor == null)
+				floor = seedFloor(transition);
+
+			if (to - from > SPLIT_THRESHOLD && inForkJoinPool()) {
+				long middle = (from + to) >>> 1;
+				BestParentsTask first = new BestParentsTask(sfs, t, i, j, from, middle, floor);
+				BestParentsTask second = new BestParentsTask(sfs, t, i, j, middle, to, floor);
+				invokeAll(first, second);
+				merge(first);
+				merge(second);
+				return;
+			}
 
-			parentNodesPast.add(new ArrayList<List<Integer>>(n));
-			// allocate parentNodesPast
-			List<List<Integer>> parentNodesPastTransition = parentNodesPast.get(t);
-			for (int i = 0; i < n; i++) {
-				parentNodesPastTransition.add(new ArrayList<Integer>());
+			Iterator<int[]> parents = parentSets.iterator(from, to);
+			for (long s = from; s < to; s++) {
+				int[] parentSet = parents.next();
+				boolean pruned = true;
+				// counted once for all scoring functions
+				ContingencyTable table = null;
+				for (int m = 0; m < sfs.length; m++) {
+					// a strictly lower bound can neither beat nor tie the best
+					// score, or the k-th best one if k are kept
+					double threshold = top != null ? top[m].threshold() : Math.max(bestScore[m], floor[m].get());
+					if (sfs[m].upperBound(observations, transition, parentSet, j, i) < threshold)
+						continue;
+					pruned = false;
+
+					double score;
+					if (sfs.length == 1)
+						score = sfs[m].evaluate(observations, transition, parentSet, j, i);
+					else {
+						if (table == null)
+							table = observations.countFamily(parentSet, j, i, transition);
+						score = sfs[m].evaluate(observations, transition, table, parentSet, j, i);
+					}
+					if (bestScore[m] < score) {
+						bestScore[m] = score;
+						bestIndex[m] = s;
+						numBestScores[m] = 1;
+						floor[m].accumulate(score);
+					} else if (bestScore[m] == score)
+						numBestScores[m]++;
+					if (top != null)
+						top[m].offer(score, s);
+				}
+				if (pruned)
+					numPruned++;
 			}
+		}
 
-			parentNodes.add(new ArrayList<List<List<Integer>>>(n));
-			// allocate parentNodes
-			List<List<List<Integer>>> parentNodesTransition = parentNodes.get(t);
-			for (int i = 0; i < n; i++) {
-				parentNodesTransition.add(new ArrayList<List<Integer>>(n));
-				List<List<Integer>> parentNodesTransitionHead = parentNodesTransition.get(i);
-				for (int j = 0; j < n; j++) {
-					parentNodesTransitionHead.add(new ArrayList<Integer>());
+		/**
+		 * Seeds the best scores shared by the ranges with the family without
+		 * past parents, which is visited last, so that every range prunes
+		 * against it from its start. Functions that do not bound families are
+		 * not seeded, and neither are any if the k best sets are kept.
+		 */
+		private DoubleAccumulator[] seedFloor(int transition) {
+			DoubleAccumulator[] floor = new DoubleAccumulator[sfs.length];
+			for (int m = 0; m < sfs.length; m++)
+				floor[m] = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+			if (top != null)
+				return floor;
+			int[] parentSet = parentSets.unrank(parentSets.emptySetRank());
+			ContingencyTable table = null;
+			for (int m = 0; m < sfs.length; m++) {
+				if (sfs[m].upperBound(observations, transition, parentSet, j, i) == Double.POSITIVE_INFINITY)
+					continue;
+				if (sfs.length == 1)
+					floor[m].accumulate(sfs[m].evaluate(observations, transition, parentSet, j, i));
+				else {
+					if (table == null)
+						table = observations.countFamily(parentSet, j, i, transition);
+					floor[m].accumulate(sfs[m].evaluate(observations, transition, table, parentSet, j, i));
 				}
 			}
+			return floor;
 		}
 
-		// allocate scoresMatrix
-		scoresMatrix = new double[numTransitions][n][n];
+		/**
+		 * Merges the result of a range of parent sets following the ones
+		 * already merged. Ties keep the earlier parent set.
+		 */
+		private void merge(BestParentsTask next) {
+			numPruned += next.numPruned;
+			for (int m = 0; m < sfs.length; m++) {
+				if (bestScore[m] < next.bestScore[m]) {
+					bestScore[m] = next.bestScore[m];
+					bestIndex[m] = next.bestIndex[m];
+					numBestScores[m] = next.numBestScores[m];
+				} else if (bestScore[m] == next.bestScore[m])
+					numBestScores[m] += next.numBestScores[m];
+				if (top != null)
+					top[m].addAll(next.top[m]);
+			}
+		}
+	}
 
+	private static ForkJoinPool pool(int parallelism) {
+		synchronized (pools) {
+			ForkJoinPool pool = pools.get(parallelism);
+			if (pool == null) {
+				pool = new ForkJoinPool(parallelism);
+				pools.put(parallelism, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Runs independent tasks in the pool, where idle workers steal the
+	 * remaining ones however uneven they are, or in order in the calling
+	 * thread if parallelism is 1.
+	 */
+	private void run(List<? extends ForkJoinTask<?>> tasks) {
+		if (parallelism > 1) {
+			ForkJoinPool pool = pool(parallelism);
+			for (ForkJoinTask<?> task : tasks)
+				pool.execute(task);
+			for (ForkJoinTask<?> task : tasks)
+				task.join();
+		} else
+			for (ForkJoinTask<?> task : tasks)
+				task.invoke();
 	}
 
 	public Scores evaluate(ScoringFunction sf) {
+		evaluate(new ScoringFunction[] { sf });
+		return this;
+	}
+
+	/**
+	 * Loads the scores from a cache file if it was written for the same
+	 * observations, scoring function, Markov lag, stationarity and maximum
+	 * number of parents, or otherwise evaluates them and writes them to the
+	 * file. The scoring function must be deterministic.
+	 */
+	public Scores evaluate(ScoringFunction sf, File cacheFile) {
+		ScoringFunction[] sfs = new ScoringFunction[] { sf };
+		evaluate(sfs, new ScoreCache(cacheFile, observations, sfs, maxParents, stationaryProcess), Long.MAX_VALUE,
+				true);
+		return this;
+	}
+
+	/**
+	 * Saves the evaluated children to a checkpoint file during evaluation, so
+	 * that an interrupted evaluation may be resumed.
+	 * 
+	 * @param file
+	 *            checkpoint file, or null to evaluate without checkpoints
+	 * @param interval
+	 *            minimum time between two checkpoints, in milliseconds
+	 * @param resume
+	 *            if true, children already saved in the file, if it was
+	 *            written for the same observations and settings, are not
+	 *            evaluated again
+	 */
+	public void setCheckpoint(File file, long interval, boolean resume) {
+		if (file == null && resume)
+			throw new IllegalArgumentException("No checkpoint file to resume from");
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
+		this.resume = resume;
+	}
+
+	/**
+	 * Evaluates several decomposable scores at once, counting each family a
+	 * single time for all of them.
+	 * 
+	 * @param sfs
+	 *            at least one scoring function
+	 * @return one evaluated Scores per scoring function, in order, the first
+	 *         one being this
+	 */
+	public Scores[] evaluate(ScoringFunction[] sfs) {
+		if (sfs.length == 0)
+			throw new IllegalArgumentException("At least one scoring function must be evaluated");
+		ScoreCache checkpoint = checkpointFile != null
+				? new ScoreCache(checkpointFile, observations, sfs, maxParents, stationaryProcess) : null;
+		return evaluate(sfs, checkpoint, checkpointInterval, resume);
+	}
+
+	/**
+	 * Evaluates scores, saving the evaluated children to a file, if not null.
+	 * Children are then evaluated one after the other, each one being saved
+	 * at most interval milliseconds after the previous save, unless interval
+	 * is Long.MAX_VALUE, in which case they are all evaluated at once and
+	 * saved at the end.
+	 */
+	private Scores[] evaluate(ScoringFunction[] sfs, ScoreCache checkpoint, long interval, boolean resume) {
 
 		int n = observations.numAttributes();
 		int numTransitions = scoresMatrix.length;
 
-		int[] numBestScoresPast = new int[n];
-		int[][] numBestScores = new int[n][n];
-
-		int cores = Runtime.getRuntime().availableProcessors();
-		int aux_sum = (int) Math.ceil(n / (double) cores);
-		ScoreCalculationThread[] Threads = new ScoreCalculationThread[cores];
+		Scores[] scores = new Scores[sfs.length];
+		scores[0] = this;
+		for (int m = 1; m < sfs.length; m++)
+			scores[m] = new Scores(observations, maxParents, stationaryProcess, verbose, parallelism);
+		for (int m = 0; m < sfs.length; m++)
+			scores[m].keepTopParentSets(topK);
+
+		double[][][][] allScoresMatrices = new double[sfs.length][][][];
+		long[][][] allParentNodesPast = new long[sfs.length][][];
+		long[][][][] allParentNodes = new long[sfs.length][][][];
+		for (int m = 0; m < sfs.length; m++) {
+			allScoresMatrices[m] = scores[m].scoresMatrix;
+			allParentNodesPast[m] = scores[m].parentNodesPast;
+			allParentNodes[m] = scores[m].parentNodes;
+		}
+		// numSolutions[m][t][i] is the number of optimal parent sets of child
+		// i, as a factor of the number of optimal networks
+		long[][][] numSolutions = new long[sfs.length][numTransitions][n];
+
+		boolean[] completed = new boolean[n];
+		if (checkpoint != null && resume
+				&& checkpoint.read(allScoresMatrices, allParentNodesPast, allParentNodes, numSolutions, completed)
+				&& verbose) {
+			int numCompleted = 0;
+			for (int i = 0; i < n; i++)
+				if (completed[i])
+					numCompleted++;
+			if (numCompleted == n)
+				System.out.println("Loaded scores from " + checkpoint.getFile() + ".");
+			else if (numCompleted > 0)
+				System.out.println("Resuming from " + checkpoint.getFile() + ", " + numCompleted + " of " + n
+						+ " children already evaluated.");
+		}
 
-		for (int t = 0; t < numTransitions; t++) {
-			//System.out.println("evaluating score in transition " + t + "/" + numTransitions);
-			if (!multithread) {
-				for (int i = 0; i < n; i++) {
-//					// System.out.println("evaluating node " + i + "/" + n);
-					double bestScore = Double.NEGATIVE_INFINITY;
-
-					for (List<Integer> parentSet : parentSets) {
-						double score = stationaryProcess ? sf.evaluate(observations, parentSet, i)
-								: sf.evaluate(observations, t, parentSet, i);
-						// System.out.println("Xi:" + i + " ps:" + parentSet + " score:" + score);
-						if (bestScore < score) {
-							bestScore = score;
-							parentNodesPast.get(t).set(i, parentSet);
-							numBestScoresPast[i] = 1;
-						} else if (bestScore == score)
-							numBestScoresPast[i]++;
-					}
-					// System.out.println("Finished parents past");
-					for (int j = 0; j < n; j++) {
-						scoresMatrix[t][i][j] = -bestScore;
-					}
-				}
-				for (int i = 0; i < n; i++) {
-					for (int j = 0; j < n; j++) {
-						if (i != j) {
-							double bestScore = Double.NEGATIVE_INFINITY;
-							for (List<Integer> parentSet : parentSets) {
-								double score = stationaryProcess ? sf.evaluate(observations, parentSet, j, i)
-										: sf.evaluate(observations, t, parentSet, j, i);
-								// System.out.println("Xi:" + i + " Xj:" + j + " ps:" + parentSet + " score:" + score);
-								if (bestScore < score) {
-									bestScore = score;
-									parentNodes.get(t).get(i).set(j, parentSet);
-									numBestScores[i][j] = 1;
-								} else if (bestScore == score)
-									numBestScores[i][j]++;
-							}
-							scoresMatrix[t][i][j] += bestScore;
-						}
-					}
-				}
-			} else {
-				int aux = 0;
-				for (int i = 0; i < n; i = i + aux_sum) {
-					int auxsum = i + aux_sum;
-					if (auxsum > n) {
-						auxsum = n;
+		// children left to evaluate
+		boolean[] pending = new boolean[n];
+		for (int i = 0; i < n; i++)
+			pending[i] = !completed[i] && i >= firstChild(shard, n) && i < firstChild(shard + 1, n);
+
+		// pastTasks[t][i] and tasks[t][i][j] are the work items of child i
+		BestParentsTask[][] pastTasks = new BestParentsTask[numTransitions][n];
+		BestParentsTask[][][] tasks = new BestParentsTask[numTransitions][n][n];
+		List<BestParentsTask> allTasks = new ArrayList<BestParentsTask>(numTransitions * n * n);
+		List<List<BestParentsTask>> childTasks = new ArrayList<List<BestParentsTask>>(n);
+		for (int i = 0; i < n; i++)
+			childTasks.add(new ArrayList<BestParentsTask>(numTransitions * n));
+		for (int t = 0; t < numTransitions; t++)
+			for (int i = 0; i < n; i++) {
+				if (!pending[i])
+					continue;
+				// families with a present parent come first, so that cached
+				// counts of the past-only ones may be summed from them
+				for (int j = 0; j < n; j++)
+					if (i != j) {
+						tasks[t][i][j] = new BestParentsTask(sfs, t, i, j);
+						allTasks.add(tasks[t][i][j]);
+						childTasks.get(i).add(tasks[t][i][j]);
 					}
-					Threads[aux] = new ScoreCalculationThread(t, i, auxsum, n, parentSets, observations, scoresMatrix,
-							parentNodesPast, parentNodes, numBestScores, numBestScoresPast, sf, stationaryProcess);
-					Threads[aux].start();
-					aux++;
+				pastTasks[t][i] = new BestParentsTask(sfs, t, i, -1);
+				allTasks.add(pastTasks[t][i]);
+				childTasks.get(i).add(pastTasks[t][i]);
+			}
+
+		if (checkpoint == null || interval == Long.MAX_VALUE) {
+			run(allTasks);
+			boolean evaluatedAny = false;
+			for (int i = 0; i < n; i++)
+				if (pending[i]) {
+					for (int m = 0; m < sfs.length; m++)
+						scores[m].collect(m, i, pastTasks, tasks, numSolutions[m]);
+					completed[i] = true;
+					evaluatedAny = true;
 				}
-				for (int i = 0; i < aux; i++) {
-					try {
-						Threads[i].join();
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
+			if (checkpoint != null && (evaluatedAny || !checkpoint.getFile().isFile()))
+				save(checkpoint, allScoresMatrices, allParentNodesPast, allParentNodes, numSolutions, completed);
+		} else {
+			// children are evaluated one after the other, so that each one is
+			// saved as soon as it is completed
+			int lastChild = n - 1;
+			while (lastChild >= 0 && !pending[lastChild])
+				lastChild--;
+			long lastCheckpoint = System.currentTimeMillis();
+			boolean saved = true;
+			for (int i = 0; i < n; i++) {
+				if (!pending[i])
+					continue;
+				run(childTasks.get(i));
+				for (int m = 0; m < sfs.length; m++)
+					scores[m].collect(m, i, pastTasks, tasks, numSolutions[m]);
+				completed[i] = true;
+
+				if (System.currentTimeMillis() - lastCheckpoint >= interval || i == lastChild) {
+					saved = save(checkpoint, allScoresMatrices, allParentNodesPast, allParentNodes, numSolutions, completed);
+					lastCheckpoint = System.currentTimeMillis();
 				}
 			}
-			if (verbose) {
-				long numSolutions = 1;
-				for (int i = 0; i < n; i++)
-					numSolutions *= numBestScoresPast[i];
-				for (int i = 0; i < n; i++)
-					for (int j = 0; j < n; j++)
-						if (i != j)
-							numSolutions *= numBestScores[i][j];
-
-				System.out.println("Number of networks with max score: " + numSolutions);
-			}
+			// a shard without children is saved too, for merging
+			if (lastChild < 0 && !checkpoint.getFile().isFile())
+				saved = save(checkpoint, allScoresMatrices, allParentNodesPast, allParentNodes, numSolutions, completed);
+			// the file is all that is left of a shard
+			if (!saved && numShards > 1)
+				throw new IllegalStateException("Shard " + shard + " could not be saved to " + checkpoint.getFile());
+		}
 
+		if (verbose) {
+			long numPruned = 0;
+			for (BestParentsTask task : allTasks)
+				numPruned += task.numPruned;
+			if (numPruned > 0)
+				System.out.println("Pruned " + numPruned + " of " + allTasks.size() * parentSets.size()
+						+ " candidate parent sets.");
 		}
 
-		evaluated = true;
+		// a shard is only evaluated once merged with the other ones
+		for (int i = 0; i < n; i++)
+			if (!completed[i])
+				return scores;
+
+		for (int m = 0; m < sfs.length; m++) {
+			if (verbose)
+				printNumNetworks(numSolutions[m]);
+			scores[m].evaluated = true;
+			scores[m].scoringFunction = sfs[m];
+		}
+
+		return scores;
+	}
+
+	/**
+	 * Writes the completed children to a file, warning if it cannot be
+	 * written.
+	 * 
+	 * @return false if the file could not be written
+	 */
+	private static boolean save(ScoreCache checkpoint, double[][][][] scoresMatrix, long[][][] parentNodesPast,
+			long[][][][] parentNodes, long[][][] numSolutions, boolean[] completed) {
+		try {
+			checkpoint.write(scoresMatrix, parentNodesPast, parentNodes, numSolutions, completed);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Scores could not be written to " + checkpoint.getFile() + ".");
+			return false;
+		}
+	}
+
+	/**
+	 * Keeps the k best parent sets of each family during evaluation, besides
+	 * the best one, so that alternatives to the optimal parents are known
+	 * without evaluating them again. Families loaded from a cache, checkpoint
+	 * or shard file only keep their best parent set.
+	 * 
+	 * @see #getTopParentSets(int, int, int)
+	 */
+	public void setTopK(int k) {
+		this.topK = k;
+	}
+
+	/**
+	 * Sets the number of best parent sets kept per family and allocates them.
+	 */
+	private void keepTopParentSets(int k) {
+		topK = k;
+		if (k > 1) {
+			int n = observations.numAttributes();
+			topParentsPast = new TopParentSets[scoresMatrix.length][n];
+			topParents = new TopParentSets[scoresMatrix.length][n][n];
+		}
+	}
+
+	/**
+	 * Best parent sets of child i in the past time slices of transition t,
+	 * given the present parent j, or no present parent if j is negative, from
+	 * the best to the worst.
+	 * 
+	 * @return null if the k best parent sets were not kept
+	 * @see #setTopK(int)
+	 */
+	public TopParentSets getTopParentSets(int t, int i, int j) {
+		if (topParentsPast == null)
+			return null;
+		return j < 0 ? topParentsPast[t][i] : topParents[t][i][j];
+	}
+
+	/**
+	 * All possible sets of parent nodes, which decode the ranks of the optimal
+	 * parents.
+	 */
+	public ParentSets getParentSets() {
+		return parentSets;
+	}
 
+	/**
+	 * Restricts evaluation to the children of one of numShards ranges of
+	 * consecutive children, so that shards may be evaluated by separate
+	 * processes. Each process should save its shard to a checkpoint file,
+	 * the scores being evaluated once all files are merged.
+	 * 
+	 * @see #setCheckpoint(File, long, boolean)
+	 * @see #merge(ScoringFunction, File...)
+	 */
+	public void setShard(int shard, int numShards) {
+		if (shard < 0 || shard >= numShards)
+			throw new IllegalArgumentException("Shard " + shard + " is not among " + numShards + " shards");
+		this.shard = shard;
+		this.numShards = numShards;
+	}
+
+	/**
+	 * First child of a shard, or n if the shard is past the last one.
+	 */
+	private int firstChild(int shard, int n) {
+		return (int) ((long) shard * n / numShards);
+	}
+
+	/**
+	 * Assembles the scores from the files of all shards, as saved by separate
+	 * evaluations of the same observations and settings.
+	 * 
+	 * @see #setShard(int, int)
+	 */
+	public Scores merge(ScoringFunction sf, File... shardFiles) {
+
+		int n = observations.numAttributes();
+		int numTransitions = scoresMatrix.length;
+
+		ScoringFunction[] sfs = new ScoringFunction[] { sf };
+		long[][][] numSolutions = new long[1][numTransitions][n];
+		boolean[] completed = new boolean[n];
+		// the observations are fingerprinted once for all shards
+		ScoreCache header = shardFiles.length > 0
+				? new ScoreCache(shardFiles[0], observations, sfs, maxParents, stationaryProcess) : null;
+		for (File file : shardFiles) {
+			if (!file.isFile())
+				throw new IllegalArgumentException("Shard file " + file + " does not exist");
+			ScoreCache shardFile = header.forFile(file);
+			if (!shardFile.read(new double[][][][] { scoresMatrix }, new long[][][] { parentNodesPast },
+					new long[][][][] { parentNodes }, numSolutions, completed))
+				throw new IllegalArgumentException("File " + file + " does not hold scores of these observations");
+		}
+
+		for (int i = 0; i < n; i++)
+			if (!completed[i])
+				throw new IllegalStateException("No shard holds the scores of child " + i);
+
+		if (verbose)
+			printNumNetworks(numSolutions[0]);
+		evaluated = true;
+		scoringFunction = sf;
 		return this;
+	}
 
+	/**
+	 * Prints the number of networks with the optimal score of each transition,
+	 * given the number of optimal parent sets of each child.
+	 */
+	private static void printNumNetworks(long[][] numSolutions) {
+		for (long[] transitionSolutions : numSolutions) {
+			long numNetworks = 1;
+			for (long childSolutions : transitionSolutions)
+				numNetworks *= childSolutions;
+			System.out.println("Number of networks with max score: " + numNetworks);
+		}
+	}
+
+	/**
+	 * Fills the rows of child i of the score matrices and optimal parents from
+	 * the results of the m-th scoring function.
+	 */
+	private void collect(int m, int i, BestParentsTask[][] pastTasks, BestParentsTask[][][] tasks,
+			long[][] numSolutions) {
+
+		int n = observations.numAttributes();
+		int numTransitions = scoresMatrix.length;
+
+		for (int t = 0; t < numTransitions; t++) {
+			BestParentsTask pastTask = pastTasks[t][i];
+			if (pastTask.bestIndex[m] >= 0)
+				parentNodesPast[t][i] = pastTask.bestIndex[m];
+			numSolutions[t][i] = pastTask.numBestScores[m];
+			if (pastTask.top != null) {
+				topParentsPast[t][i] = pastTask.top[m];
+				topParentsPast[t][i].sort();
+			}
+			for (int j = 0; j < n; j++)
+				scoresMatrix[t][i][j] = -pastTask.bestScore[m];
+			for (int j = 0; j < n; j++)
+				if (i != j) {
+					if (tasks[t][i][j].bestIndex[m] >= 0)
+						parentNodes[t][i][j] = tasks[t][i][j].bestIndex[m];
+					scoresMatrix[t][i][j] += tasks[t][i][j].bestScore[m];
+					numSolutions[t][i] *= tasks[t][i][j].numBestScores[m];
+					if (tasks[t][i][j].top != null) {
+						topParents[t][i][j] = tasks[t][i][j].top[m];
+						topParents[t][i][j].sort();
+					}
+				}
+		}
 	}
 
 	public List<Integer> Best_Past_Parents(List<Integer> ancestors, int i, int t, ScoringFunction sf) {
@@ -230,7 +765,8 @@ public class Scores {
 		List<Integer> best_parent_set = new ArrayList<Integer>();
 		double bestScore = Double.NEGATIVE_INFINITY;
 
-		for (List<Integer> parentSet : parentSets) {
+		for (int[] parents : parentSets) {
+			List<Integer> parentSet = ParentSets.toList(parents);
 			double score = stationaryProcess ? sf.evaluate_2(observations, parentSet, ancestors, i)
 					: sf.evaluate_2(observations, t, parentSet, ancestors, i);
 			if (bestScore < score) {
@@ -266,22 +802,22 @@ public class Scores {
 			// numTransitions);
 			for (int i = 0; i < n; i++) {
 				// System.out.println("evaluating node " + i + "/" + n);
-				for (List<Integer> parentSet : parentSets) {
+				for (int[] parents : parentSets) {
+					List<Integer> parentSet = ParentSets.toList(parents);
 
 					LocalConfiguration c = new LocalConfiguration(observations.getAttributes(),
 							observations.getMarkovLag(), parentSet, i);
+					ContingencyTable table = observations.countFamily(c, t);
 
-					do {
-						c.setConsiderChild(false);
-						double Nij = observations.count(c, t);
-						c.setConsiderChild(true);
-						do {
-							double Nijk = observations.count(c, t);
+					for (int j = 0; j < table.getParentsRange(); j++) {
+						double Nij = table.getNij(j);
+						for (int k = 0; k < table.getChildRange(); k++) {
+							double Nijk = table.getNijk(j, k);
 							if (Nijk != 0 && Nijk != Nij) {
 								score += (Math.log(Nijk) - Math.log(Nij));
 							}
-						} while (c.nextChild());
-					} while (c.nextParents());
+						}
+					}
 
 				}
 			}
@@ -290,45 +826,6 @@ public class Scores {
 
 	}
 
-	// adapted from http://stackoverflow.com/a/7631893
-	private void generateCombinations(int n, int k) {
-
-		int[] comb = new int[k];
-		for (int i = 0; i < comb.length; i++) {
-			comb[i] = i;
-		}
-
-		boolean done = false;
-		while (!done) {
-
-			List<Integer> intList = new ArrayList<Integer>(k);
-			for (int i : comb) {
-				intList.add(i);
-			}
-			this.parentSets.add(intList);
-
-			int target = k - 1;
-			comb[target]++;
-			if (comb[target] > n - 1) {
-				// carry the one
-				while (comb[target] > ((n - 1 - (k - target)))) {
-					target--;
-					if (target < 0) {
-						break;
-					}
-				}
-				if (target < 0) {
-					done = true;
-				} else {
-					comb[target]++;
-					for (int i = target + 1; i < comb.length; i++) {
-						comb[i] = comb[i - 1] + 1;
-					}
-				}
-			}
-		}
-	}
-
 	public double[][] getScoresMatrix(int transition) {
 		return scoresMatrix[transition];
 	}
@@ -341,23 +838,41 @@ public class Scores {
 		return toDBN(root, spanning, false);
 	}
 
-	public DynamicBayesNet toDBN(int root, boolean spanning, boolean prior) {
+	/**
+	 * Builds the network of transition t from the optimum branching of its
+	 * score matrix. Transitions are independent, so that their tasks may run
+	 * concurrently.
+	 */
+	private class BranchingTask extends RecursiveAction {
 
-		if (!evaluated)
-			throw new IllegalStateException("Scores must be evaluated before being converted to DBN");
+		private static final long serialVersionUID = 1L;
 
-		int n = observations.numAttributes();
+		private final int t;
 
-		int numTransitions = scoresMatrix.length;
+		private final int root;
 
-		List<BayesNet> transitionNets = new ArrayList<BayesNet>(numTransitions);
+		private final boolean spanning;
 
-		for (int t = 0; t < numTransitions; t++) {
+		private BayesNet transitionNet;
+
+		/**
+		 * Score of the network, computed if verbose.
+		 */
+		private double score;
+
+		private BranchingTask(int t, int root, boolean spanning) {
+			this.t = t;
+			this.root = root;
+			this.spanning = spanning;
+		}
+
+		@Override
+		protected void compute() {
+			int n = observations.numAttributes();
 
 			OptimumBranching intraRelations = new OptimumBranching(scoresMatrix[t], root, spanning);
 
 			if (verbose) {
-				double score = 0;
 				boolean[][] adj = Utils.adjacencyMatrix(intraRelations.branching, n);
 
 				for (int i = 0; i < n; i++) {
@@ -373,8 +888,6 @@ public class Scores {
 						// subtract since sign was inverted
 						score -= scoresMatrix[t][i][i];
 				}
-
-				System.out.println("Network score: " + score);
 			}
 
 			List<Edge> interRelations = new ArrayList<Edge>(n * maxParents);
@@ -384,9 +897,8 @@ public class Scores {
 			for (Edge intra : intraRelations.branching) {
 				int tail = intra.getTail();
 				int head = intra.getHead();
-				List<List<List<Integer>>> parentNodesT = parentNodes.get(t);
 
-				for (Integer nodePast : parentNodesT.get(head).get(tail)) {
+				for (int nodePast : parentSets.unrank(parentNodes[t][head][tail])) {
 					interRelations.add(new Edge(nodePast, head));
 					hasParent[head] = true;
 				}
@@ -394,16 +906,34 @@ public class Scores {
 
 			for (int i = 0; i < n; i++)
 				if (!hasParent[i]) {
-					List<List<Integer>> parentNodesPastT = parentNodesPast.get(t);
-					for (int nodePast : parentNodesPastT.get(i))
+					for (int nodePast : parentSets.unrank(parentNodesPast[t][i]))
 						interRelations.add(new Edge(nodePast, i));
 				}
 
-			BayesNet bt = new BayesNet(observations.getAttributes(), observations.getMarkovLag(),
+			transitionNet = new BayesNet(observations.getAttributes(), observations.getMarkovLag(),
 					intraRelations.branching, interRelations);
+		}
+	}
 
-			transitionNets.add(bt);
+	public DynamicBayesNet toDBN(int root, boolean spanning, boolean prior) {
+
+		if (!evaluated)
+			throw new IllegalStateException("Scores must be evaluated before being converted to DBN");
+
+		int numTransitions = scoresMatrix.length;
+
+		List<BranchingTask> tasks = new ArrayList<BranchingTask>(numTransitions);
+		for (int t = 0; t < numTransitions; t++)
+			tasks.add(new BranchingTask(t, root, spanning));
+		run(tasks);
+
+		List<BayesNet> transitionNets = new ArrayList<BayesNet>(numTransitions);
+		for (BranchingTask task : tasks) {
+			if (verbose)
+				System.out.println("Network score: " + task.score);
+			transitionNets.add(task.transitionNet);
 		}
+
 		if (prior) {
 			List<Edge> prior_array = new ArrayList<Edge>();
 			List<Attribute> a = observations.getAttributes();
@@ -420,92 +950,105 @@ public class Scores {
 	}
 
 	public DynamicBayesNet to_bcDBN(ScoringFunction sf, int k, boolean prior) {
+		return toBoundedDBN(sf, k, prior, true);
+	}
 
-		if (!evaluated)
-			throw new IllegalStateException("Scores must be evaluated before being converted to DBN");
-
-		int n = observations.numAttributes();
-
-		int numTransitions = scoresMatrix.length;
-
-		List<BayesNet> transitionNets = new ArrayList<BayesNet>(numTransitions);
-
-		for (int t = 0; t < numTransitions; t++) {
-
-			OptimumBranching intraRelations = new OptimumBranching(scoresMatrix[t]);
+	public DynamicBayesNet to_cDBN(ScoringFunction sf, int k) {
+		return to_cDBN(sf, k, false);
+	}
 
-			intraRelations.BFS();
+	public DynamicBayesNet to_cDBN(ScoringFunction sf, int k, boolean prior) {
+		return toBoundedDBN(sf, k, prior, false);
+	}
 
-			PastParents = new ArrayList<List<Integer>>(n);
+	/**
+	 * Finds the optimal parents of node i in transition t, among the past
+	 * time slices and among at most k of its ancestors in the intra-slice
+	 * branching. Nodes are independent, so that their tasks may run
+	 * concurrently.
+	 * <p>
+	 * If the scores were evaluated with the same scoring function, the
+	 * optimal past parents with no or one present parent are already known,
+	 * so that only one family is scored for each of these subsets.
+	 */
+	private class BoundedParentsTask extends RecursiveAction {
 
-			PresentParents = new ArrayList<List<Integer>>(n);
+		private static final long serialVersionUID = 1L;
 
-			for (int i = 0; i < n; i++) {
+		private final ScoringFunction sf;
 
-				ArrayList<Integer> anc = intraRelations.ancestors(i);
+		private final int t;
 
-				PastParents.add(new ArrayList<Integer>());
+		private final int i;
 
-				PresentParents.add(new ArrayList<Integer>());
+		private final int k;
 
-				double bestScore = Double.NEGATIVE_INFINITY;
+		private final ArrayList<Integer> anc;
 
-				for (List<Integer> parentSet : parentSets) {
+		private List<Integer> pastParents = new ArrayList<Integer>();
 
-					for (ArrayList<Integer> S : OptimumBranching.Subsets(anc, k)) {
+		private List<Integer> presentParents = new ArrayList<Integer>();
 
-						double score = stationaryProcess ? sf.evaluate_2(observations, parentSet, S, i)
-								: sf.evaluate_2(observations, t, parentSet, S, i);
-						if (score > bestScore) {
-							bestScore = score;
-							PastParents.set(i, parentSet);
-							PresentParents.set(i, S);
-						}
-					}
-				}
-			}
+		private double bestScore = Double.NEGATIVE_INFINITY;
 
-			List<Edge> intra = new ArrayList<Edge>();
+		/**
+		 * Rank of the optimal past parents, -1 until a score better than
+		 * negative infinity is found.
+		 */
+		private long bestRank = -1;
 
-			List<Edge> inter = new ArrayList<Edge>();
+		private BoundedParentsTask(ScoringFunction sf, int t, int i, int k, ArrayList<Integer> anc) {
+			this.sf = sf;
+			this.t = t;
+			this.i = i;
+			this.k = k;
+			this.anc = anc;
+		}
 
-			for (int node = 0; node < n; node++) {
+		@Override
+		protected void compute() {
+			ArrayList<ArrayList<Integer>> subsets = OptimumBranching.Subsets(anc, k);
+			int transition = stationaryProcess ? -1 : t;
+			boolean known = sf == scoringFunction;
 
-				for (int j = 0; j < PastParents.get(node).size(); j++) {
+			for (ArrayList<Integer> S : subsets) {
+				int[] presentSet = ParentSets.toArray(S);
 
-					inter.add(new Edge(PastParents.get(node).get(j), node));
+				if (known && presentSet.length <= 1) {
+					long rank = presentSet.length == 0 ? parentNodesPast[t][i] : parentNodes[t][i][presentSet[0]];
+					int[] parents = parentSets.unrank(rank);
+					offer(sf.evaluate_2(observations, transition, parents, presentSet, i), rank, parents, S);
+					continue;
 				}
-			}
-
-			for (int node = 0; node < n; node++) {
-
-				for (int j = 0; j < PresentParents.get(node).size(); j++) {
 
-					intra.add(new Edge(PresentParents.get(node).get(j), node));
-				}
+				long rank = 0;
+				for (int[] parents : parentSets)
+					offer(sf.evaluate_2(observations, transition, parents, presentSet, i), rank++, parents, S);
 			}
-
-			BayesNet bt = new BayesNet(observations.getAttributes(), observations.getMarkovLag(), intra, inter);
-
-			transitionNets.add(bt);
 		}
 
-		if (prior) {
-			List<Edge> prior_array = new ArrayList<Edge>();
-			List<Attribute> a = observations.getAttributes();
-			BayesNet b0 = new BayesNet(a, prior_array);
-			return new DynamicBayesNet(observations.getAttributes(), b0, transitionNets);
+		/**
+		 * Keeps a family if it is the best so far. Of families with the same
+		 * score, the one whose past parents have the lowest rank is kept, then
+		 * the one of the first subset, as if parent sets were scanned in rank
+		 * order for all subsets.
+		 */
+		private void offer(double score, long rank, int[] parents, List<Integer> S) {
+			if (score > bestScore || score == bestScore && rank < bestRank) {
+				bestScore = score;
+				bestRank = rank;
+				pastParents = ParentSets.toList(parents);
+				presentParents = S;
+			}
 		}
-
-		return new DynamicBayesNet(observations.getAttributes(), transitionNets);
-
 	}
 
-	public DynamicBayesNet to_cDBN(ScoringFunction sf, int k) {
-		return to_cDBN(sf, k, false);
-	}
-
-	public DynamicBayesNet to_cDBN(ScoringFunction sf, int k, boolean prior) {
+	/**
+	 * Converts the scores to a DBN whose nodes have at most k parents in
+	 * their slice, among their ancestors in the optimal branching, as a cDBN,
+	 * or as a bcDBN if the branching is searched breadth first.
+	 */
+	private DynamicBayesNet toBoundedDBN(ScoringFunction sf, int k, boolean prior, boolean bfs) {
 
 		if (!evaluated)
 			throw new IllegalStateException("Scores must be evaluated before being converted to DBN");
@@ -514,44 +1057,28 @@ public class Scores {
 
 		int numTransitions = scoresMatrix.length;
 
-		List<BayesNet> transitionNets = new ArrayList<BayesNet>(numTransitions);
+		// tasks[t][i] finds the parents of node i in transition t
+		BoundedParentsTask[][] tasks = new BoundedParentsTask[numTransitions][n];
+		List<BoundedParentsTask> allTasks = new ArrayList<BoundedParentsTask>(numTransitions * n);
 
 		for (int t = 0; t < numTransitions; t++) {
 
 			OptimumBranching intraRelations = new OptimumBranching(scoresMatrix[t]);
 
-			PastParents = new ArrayList<List<Integer>>(n);
-
-			PresentParents = new ArrayList<List<Integer>>(n);
+			if (bfs)
+				intraRelations.BFS();
 
 			for (int i = 0; i < n; i++) {
+				tasks[t][i] = new BoundedParentsTask(sf, t, i, k, intraRelations.ancestors(i));
+				allTasks.add(tasks[t][i]);
+			}
+		}
 
-				ArrayList<Integer> anc = intraRelations.ancestors(i);
-
-				PastParents.add(new ArrayList<Integer>());
-
-				PresentParents.add(new ArrayList<Integer>());
-
-				double bestScore = Double.NEGATIVE_INFINITY;
-
-				for (List<Integer> parentSet : parentSets) {
-
-					for (ArrayList<Integer> S : OptimumBranching.Subsets(anc, k)) {
-
-						double score = stationaryProcess ? sf.evaluate_2(observations, parentSet, S, i)
-								: sf.evaluate_2(observations, t, parentSet, S, i);
-
-						if (score > bestScore) {
-							bestScore = score;
-							PastParents.set(i, parentSet);
-							PresentParents.set(i, S);
-						}
-
-					}
+		run(allTasks);
 
-				}
+		List<BayesNet> transitionNets = new ArrayList<BayesNet>(numTransitions);
 
-			}
+		for (int t = 0; t < numTransitions; t++) {
 
 			List<Edge> intra = new ArrayList<Edge>();
 
@@ -559,17 +1086,17 @@ public class Scores {
 
 			for (int node = 0; node < n; node++) {
 
-				for (int j = 0; j < PastParents.get(node).size(); j++) {
+				for (int j = 0; j < tasks[t][node].pastParents.size(); j++) {
 
-					inter.add(new Edge(PastParents.get(node).get(j), node));
+					inter.add(new Edge(tasks[t][node].pastParents.get(j), node));
 				}
 			}
 
 			for (int node = 0; node < n; node++) {
 
-				for (int j = 0; j < PresentParents.get(node).size(); j++) {
+				for (int j = 0; j < tasks[t][node].presentParents.size(); j++) {
 
-					intra.add(new Edge(PresentParents.get(node).get(j), node));
+					intra.add(new Edge(tasks[t][node].presentParents.get(j), node));
 				}
 			}
 
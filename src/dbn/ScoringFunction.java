@@ -38,4 +38,56 @@ public interface ScoringFunction {
 	 */
 	public abstract double evaluate(Observations observations, List<Integer> parentNodesPast, int childNode);
 
+	/**
+	 * Calculates the score of a family whose past parents are given as an
+	 * array, as decoded by {@link ParentSets#unrank(long)}. The present parent
+	 * is negative if there is none, and the transition is negative when the
+	 * process is stationary.
+	 */
+	public default double evaluate(Observations observations, int transition, int[] parentNodesPast,
+			int parentNodePresent, int childNode) {
+		List<Integer> parentNodesPastList = ParentSets.toList(parentNodesPast);
+		Integer present = parentNodePresent >= 0 ? parentNodePresent : null;
+		if (transition < 0)
+			return evaluate(observations, parentNodesPastList, present, childNode);
+		return evaluate(observations, transition, parentNodesPastList, present, childNode);
+	}
+
+	/**
+	 * Calculates the score of a family with several present parents, given as
+	 * arrays of nodes, the past ones already shifted. The transition is
+	 * negative when the process is stationary. The default implementation
+	 * adapts the arguments to the methods taking lists.
+	 */
+	public default double evaluate_2(Observations observations, int transition, int[] parentNodesPast,
+			int[] parentNodesPresent, int childNode) {
+		List<Integer> parentNodesPastList = ParentSets.toList(parentNodesPast);
+		List<Integer> parentNodesPresentList = ParentSets.toList(parentNodesPresent);
+		if (transition < 0)
+			return evaluate_2(observations, parentNodesPastList, parentNodesPresentList, childNode);
+		return evaluate_2(observations, transition, parentNodesPastList, parentNodesPresentList, childNode);
+	}
+
+	/**
+	 * Calculates the score of a family from its contingency table, already
+	 * counted, so that several scores may share one count. The other arguments
+	 * are as in {@link #evaluate(Observations, int, int[], int, int)}, to
+	 * which the default implementation delegates, counting again.
+	 */
+	public default double evaluate(Observations observations, int transition, ContingencyTable table,
+			int[] parentNodesPast, int parentNodePresent, int childNode) {
+		return evaluate(observations, transition, parentNodesPast, parentNodePresent, childNode);
+	}
+
+	/**
+	 * Upper bound of the score of a family, computed without counting, so
+	 * that families whose bound is lower than a known score need not be
+	 * evaluated. The arguments are as in
+	 * {@link #evaluate(Observations, int, int[], int, int)}.
+	 */
+	public default double upperBound(Observations observations, int transition, int[] parentNodesPast,
+			int parentNodePresent, int childNode) {
+		return Double.POSITIVE_INFINITY;
+	}
+
 }
@@ -0,0 +1,144 @@
+package dbn;
+
+/**
+ * The k best parent sets of a family, with their scores, kept in a bounded
+ * heap of primitive arrays. Parent sets are identified by their rank in
+ * {@link ParentSets}. Of two parent sets with the same score, the one of
+ * lower rank is the better, so that the sets kept do not depend on the order
+ * in which they are offered.
+ * <p>
+ * Once evaluation is done, sets are sorted from the best to the worst.
+ */
+public final class TopParentSets {
+
+	private final double[] scores;
+
+	private final long[] ranks;
+
+	private int size;
+
+	/**
+	 * While offered sets, scores and ranks form a heap whose root is the worst
+	 * set kept.
+	 */
+	private boolean sorted;
+
+	TopParentSets(int k) {
+		scores = new double[k];
+		ranks = new long[k];
+	}
+
+	/**
+	 * Score that a parent set must reach to be kept, negative infinity until k
+	 * sets are kept.
+	 */
+	double threshold() {
+		return size < scores.length ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Keeps a parent set if it is among the k best offered.
+	 */
+	void offer(double score, long rank) {
+		if (size < scores.length) {
+			scores[size] = score;
+			ranks[size] = rank;
+			siftUp(size++);
+		} else if (size > 0 && worse(0, score, rank)) {
+			scores[0] = score;
+			ranks[0] = rank;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Keeps the k best parent sets of both.
+	 */
+	void addAll(TopParentSets other) {
+		for (int r = 0; r < other.size; r++)
+			offer(other.scores[r], other.ranks[r]);
+	}
+
+	/**
+	 * Sorts the sets from the best to the worst, by moving the worst one to
+	 * the end of the heap until it is empty.
+	 */
+	void sort() {
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		sorted = true;
+	}
+
+	/**
+	 * True if the set at some position of the heap is worse than a set of
+	 * the given score and rank.
+	 */
+	private boolean worse(int position, double score, long rank) {
+		return scores[position] < score || scores[position] == score && ranks[position] > rank;
+	}
+
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!worse(position, scores[parent], ranks[parent]))
+				return;
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position, int end) {
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= end)
+				return;
+			if (child + 1 < end && worse(child + 1, scores[child], ranks[child]))
+				child++;
+			if (!worse(child, scores[position], ranks[position]))
+				return;
+			swap(position, child);
+			position = child;
+		}
+	}
+
+	private void swap(int a, int b) {
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+		long rank = ranks[a];
+		ranks[a] = ranks[b];
+		ranks[b] = rank;
+	}
+
+	/**
+	 * Number of parent sets kept, at most k.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Score of the r-th best parent set, from 0.
+	 */
+	public double getScore(int r) {
+		checkSorted();
+		return scores[r];
+	}
+
+	/**
+	 * Rank of the r-th best parent set, from 0, as decoded by
+	 * {@link ParentSets#get(long)}.
+	 */
+	public long getRank(int r) {
+		checkSorted();
+		return ranks[r];
+	}
+
+	private void checkSorted() {
+		if (!sorted)
+			throw new IllegalStateException("Parent sets are still being evaluated");
+	}
+
+}